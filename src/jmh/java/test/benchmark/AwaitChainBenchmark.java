@@ -0,0 +1,49 @@
+package test.benchmark;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * depth个AsyncStream依次await前一个，最前面的收到事件后逐级唤醒，直到最后一个结束。
+ * 对照CompletableFuture：每一级thenCompose前一级。
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class AwaitChainBenchmark {
+    @Param({"1", "16", "256"})
+    int depth;
+    int event;
+
+    @Benchmark
+    public Object asyncStream() {
+        AsyncStream root = AsyncStream.deferredAsync();
+        root.<Integer, Integer>then(e -> e).end();
+        AsyncStream last = root;
+        for (int i = 0; i < depth; i++) {
+            AsyncStream next = AsyncStream.instantAsync();
+            next.await(last).end();
+            last = next;
+        }
+        root.onEvent(event++);
+        return last.join();
+    }
+
+    @Benchmark
+    public Object completableFuture() {
+        CompletableFuture<Integer> root = new CompletableFuture<>();
+        CompletableFuture<Integer> last = root;
+        for (int i = 0; i < depth; i++) {
+            CompletableFuture<Integer> previous = last;
+            last = CompletableFuture.completedFuture(null).thenCompose(ignored -> previous);
+        }
+        root.complete(event++);
+        return last.join();
+    }
+}
@@ -0,0 +1,85 @@
+package test.benchmark;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程中when/collect等待width个子AsyncStream，对照CompletableFuture.allOf（collect再逐个join收集结果）。
+ * 多个线程同时结束子AsyncStream的情况见implemention_related.FanInJoinTest。
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class FanInBenchmark {
+    @Param({"2", "64", "1024"})
+    int width;
+
+    @Benchmark
+    public Object asyncStreamWhen() {
+        List<AsyncStream> children = children();
+        AsyncStream parent = AsyncStream.whenAsync(children).end();
+        complete(children);
+        return parent.join();
+    }
+
+    @Benchmark
+    public Object asyncStreamCollect() {
+        List<AsyncStream> children = children();
+        AsyncStream parent = AsyncStream.collectAsync(children).end();
+        complete(children);
+        return parent.join();
+    }
+
+    @Benchmark
+    public Object completableFutureAllOf() {
+        CompletableFuture<?>[] children = futures();
+        CompletableFuture<Void> parent = CompletableFuture.allOf(children);
+        for (int i = 0; i < width; i++)
+            ((CompletableFuture<Integer>) children[i]).complete(i);
+        return parent.join();
+    }
+
+    @Benchmark
+    public Object completableFutureCollect() {
+        CompletableFuture<?>[] children = futures();
+        CompletableFuture<Object[]> parent = CompletableFuture.allOf(children).thenApply(ignored -> {
+            Object[] results = new Object[children.length];
+            for (int i = 0; i < children.length; i++)
+                results[i] = children[i].join();
+            return results;
+        });
+        for (int i = 0; i < width; i++)
+            ((CompletableFuture<Integer>) children[i]).complete(i);
+        return parent.join();
+    }
+
+    private List<AsyncStream> children() {
+        List<AsyncStream> children = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            AsyncStream child = AsyncStream.deferredAsync();
+            child.<Integer, Integer>then(e -> e).end();
+            children.add(child);
+        }
+        return children;
+    }
+
+    private void complete(List<AsyncStream> children) {
+        for (int i = 0; i < width; i++)
+            children.get(i).onEvent(i);
+    }
+
+    private CompletableFuture<?>[] futures() {
+        CompletableFuture<?>[] children = new CompletableFuture<?>[width];
+        for (int i = 0; i < width; i++)
+            children[i] = new CompletableFuture<Integer>();
+        return children;
+    }
+}
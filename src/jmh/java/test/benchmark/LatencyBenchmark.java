@@ -0,0 +1,82 @@
+package test.benchmark;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * 端到端延迟的分布（SampleTime模式输出p50/p90/p99/p99.9等百分位）：基准线程提交一个事件，由另一个线程执行的消费者
+ * 处理后，基准线程自旋等到它被处理为止。三者使用同一个单线程executor和同样的等待方式。
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class LatencyBenchmark {
+    ExecutorService executor;
+    AsyncStream asyncStream;
+    SubmissionPublisher<Long> publisher;
+    volatile long processed;
+    long sent;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+        asyncStream = AsyncStream.deferredAsync(executor);
+        asyncStream.<Long>loop(e -> {
+            processed = e;
+            return true;
+        });
+        publisher = new SubmissionPublisher<>(executor, Flow.defaultBufferSize());
+        publisher.subscribe(new Flow.Subscriber<Long>() {
+            @Override public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override public void onNext(Long item) {
+                processed = item;
+            }
+
+            @Override public void onError(Throwable throwable) {}
+
+            @Override public void onComplete() {}
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        asyncStream.cancel();
+        publisher.close();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public long asyncStream() {
+        long event = ++sent;
+        asyncStream.onEvent(event);
+        return awaitProcessed(event);
+    }
+
+    @Benchmark
+    public long completableFuture() {
+        long event = ++sent;
+        CompletableFuture.runAsync(() -> processed = event, executor);
+        return awaitProcessed(event);
+    }
+
+    @Benchmark
+    public long submissionPublisher() {
+        long event = ++sent;
+        publisher.submit(event);
+        return awaitProcessed(event);
+    }
+
+    private long awaitProcessed(long event) {
+        while (processed != event)
+            Thread.onSpinWait();
+        return event;
+    }
+}
@@ -0,0 +1,78 @@
+package test.benchmark;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程中loop消费事件的开销，每次调用提交{@link #BATCH}个事件，结果按事件数归一化。
+ * 对照使用同步executor（在submit的线程中直接执行onNext）的SubmissionPublisher。
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class LoopBenchmark {
+    static final int BATCH = 256;
+    AsyncStream asyncStream;
+    SubmissionPublisher<Integer> publisher;
+    Integer[] events;
+    long sum;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        asyncStream = AsyncStream.deferredAsync();
+        asyncStream.<Integer>loop(e -> {
+            sum += e;
+            return true;
+        });
+        publisher = new SubmissionPublisher<>(Runnable::run, Flow.defaultBufferSize());
+        publisher.subscribe(new Flow.Subscriber<Integer>() {
+            @Override public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override public void onNext(Integer item) {
+                sum += item;
+            }
+
+            @Override public void onError(Throwable throwable) {}
+
+            @Override public void onComplete() {}
+        });
+        events = new Integer[BATCH];
+        for (int i = 0; i < BATCH; i++)
+            events[i] = i;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        asyncStream.cancel();
+        publisher.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void asyncStream() {
+        for (Integer event : events)
+            asyncStream.onEvent(event);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void asyncStreamBatch() {
+        asyncStream.onEvents((Object[]) events);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void submissionPublisher() {
+        for (Integer event : events)
+            publisher.submit(event);
+    }
+}
@@ -0,0 +1,94 @@
+package test.benchmark;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个生产者同时向一个消费者提交事件时的吞吐量随线程数的变化（JMH的线程数不能参数化，所以每个线程数一个方法）。
+ * AsyncStream由抢到tick_mutex的生产者顺带执行loop；对照SubmissionPublisher，由ForkJoinPool中的线程执行onNext，
+ * 缓冲满时submit阻塞生产者。
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class OnEventScalingBenchmark {
+    AsyncStream asyncStream;
+    SubmissionPublisher<Object> publisher;
+    Object event = new Object();
+    long consumed;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        asyncStream = AsyncStream.deferredAsync();
+        asyncStream.loop(e -> {
+            consumed++;
+            return true;
+        });
+        publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+        publisher.subscribe(new CountingSubscriber());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        asyncStream.cancel();
+        publisher.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean asyncStream_1() {return asyncStream.onEvent(event);}
+
+    @Benchmark
+    @Threads(2)
+    public boolean asyncStream_2() {return asyncStream.onEvent(event);}
+
+    @Benchmark
+    @Threads(4)
+    public boolean asyncStream_4() {return asyncStream.onEvent(event);}
+
+    @Benchmark
+    @Threads(8)
+    public boolean asyncStream_8() {return asyncStream.onEvent(event);}
+
+    @Benchmark
+    @Threads(1)
+    public int submissionPublisher_1() {return publisher.submit(event);}
+
+    @Benchmark
+    @Threads(2)
+    public int submissionPublisher_2() {return publisher.submit(event);}
+
+    @Benchmark
+    @Threads(4)
+    public int submissionPublisher_4() {return publisher.submit(event);}
+
+    @Benchmark
+    @Threads(8)
+    public int submissionPublisher_8() {return publisher.submit(event);}
+
+    static class CountingSubscriber implements Flow.Subscriber<Object> {
+        Flow.Subscription subscription;
+        long consumed;
+
+        @Override public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override public void onNext(Object item) {
+            consumed++;
+        }
+
+        @Override public void onError(Throwable throwable) {}
+
+        @Override public void onComplete() {}
+    }
+}
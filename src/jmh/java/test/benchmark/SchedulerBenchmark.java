@@ -0,0 +1,85 @@
+package test.benchmark;
+
+import lab.mars.util.async.AsyncScheduler;
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每次操作向actors个actor各发送batch个事件，等待全部处理完。AsyncScheduler按actionsPerTurn分轮执行，
+ * 对照同样线程数的固定线程池上的deferredAsync(executor)（每次drain不限制action数），以及在生产者线程中直接drain。
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class SchedulerBenchmark {
+    static final int THREADS = 4;
+    static final int ACTORS = 1024;
+
+    @Param({"1", "16", "256"})
+    int actionsPerTurn;
+    @Param({"1", "64"})
+    int batch;
+
+    AsyncScheduler scheduler;
+    ExecutorService pool;
+    AsyncStream[] scheduled, pooled, direct;
+    AtomicLong processed = new AtomicLong();
+    long expected;
+    Object event = new Object();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        scheduler = new AsyncScheduler(THREADS, actionsPerTurn);
+        pool = Executors.newFixedThreadPool(THREADS);
+        scheduled = new AsyncStream[ACTORS];
+        pooled = new AsyncStream[ACTORS];
+        direct = new AsyncStream[ACTORS];
+        for (int i = 0; i < ACTORS; i++) {
+            scheduled[i] = actor(scheduler.deferredAsync());
+            pooled[i] = actor(AsyncStream.deferredAsync(pool));
+            direct[i] = actor(AsyncStream.deferredAsync());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+        pool.shutdown();
+    }
+
+    private AsyncStream actor(AsyncStream async) {
+        async.loop(e -> {
+            processed.incrementAndGet();
+            return true;
+        });
+        return async;
+    }
+
+    @Benchmark
+    public long asyncScheduler() {return send(scheduled);}
+
+    @Benchmark
+    public long executorDrain() {return send(pooled);}
+
+    @Benchmark
+    public long directDrain() {return send(direct);}
+
+    private long send(AsyncStream[] actors) {
+        expected += (long) ACTORS * batch;
+        for (int b = 0; b < batch; b++)
+            for (AsyncStream actor : actors)
+                actor.onEvent(event);
+        long done;
+        while ((done = processed.get()) < expected)
+            Thread.onSpinWait();
+        return done;
+    }
+}
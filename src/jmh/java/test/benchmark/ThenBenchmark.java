@@ -0,0 +1,41 @@
+package test.benchmark;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程中创建并执行一条{@link #STEPS}步的then链，对照CompletableFuture的thenApply链。
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ThenBenchmark {
+    static final int STEPS = 4;
+    int event;
+
+    @Benchmark
+    public Object asyncStream() {
+        AsyncStream async = AsyncStream.deferredAsync();
+        for (int i = 0; i < STEPS; i++)
+            async.<Integer, Integer>then(e -> e + 1);
+        async.end();
+        async.onEvent(event++);
+        return async.join();
+    }
+
+    @Benchmark
+    public Object completableFuture() {
+        CompletableFuture<Integer> source = new CompletableFuture<>();
+        CompletableFuture<Integer> future = source;
+        for (int i = 0; i < STEPS; i++)
+            future = future.thenApply(e -> e + 1);
+        source.complete(event++);
+        return future.join();
+    }
+}
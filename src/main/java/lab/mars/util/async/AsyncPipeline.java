@@ -0,0 +1,174 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 预先编译好的action链模板。大量AsyncStream具有相同的action链时，先用{@link #builder()}构建一次模板，
+ * 再通过{@link #deferredAsync()}、{@link #instantAsync(Object...)}等方法实例化AsyncStream。
+ * 这些AsyncStream共享模板中不可变的action数组，只各自保存一个指向下一个action的游标，所以实例化时不需要
+ * 为每一步分配action包装对象，也不需要把它们逐个放入actions队列。
+ * <p>实例化之后仍然可以通过{@link AsyncStream#then}等方法动态添加action（模板没有以end结束时），
+ * 这些action在模板中的action之后执行。</p>
+ * <pre>
+ * AsyncPipeline pipeline = AsyncPipeline.builder()
+ *         .&lt;Request&gt;then(request -&gt; decode(request))
+ *         .&lt;Command&gt;loop(command -&gt; execute(command))
+ *         .end();
+ * AsyncStream async = pipeline.deferredAsync();
+ * </pre>
+ */
+public final class AsyncPipeline {
+    static final AsyncPipeline EMPTY = new AsyncPipeline(new _Action[0], new _Action[0], false);
+
+    final _Action[] actions;
+    final _Action[] endActions;
+    /**
+     * 模板以end结束，实例化的AsyncStream的chain已经关闭
+     */
+    final boolean closed;
+
+    private AsyncPipeline(_Action[] actions, _Action[] endActions, boolean closed) {
+        this.actions = actions;
+        this.endActions = endActions;
+        this.closed = closed;
+    }
+
+    public static Builder builder() {return new Builder();}
+
+    /**
+     * DEFERRED to wait for one async event to happen
+     */
+    public AsyncStream deferredAsync() {return new AsyncStream(false, null, null, this);}
+
+    /**
+     * same as {@link #deferredAsync()} but actions are executed by a drain task submitted to the executor
+     */
+    public AsyncStream deferredAsync(Executor executor) {return new AsyncStream(false, executor, null, this);}
+
+    /**
+     * no need to wait for one async event to happen, Instant actions will executed instantly
+     */
+    public AsyncStream instantAsync(Object... events) {
+        AsyncStream async = new AsyncStream(null, events, this);
+        async.tick();//模板中的action已经就绪，不会再有then等方法来触发tick
+        return async;
+    }
+
+    /**
+     * 构建{@link AsyncPipeline}，方法与{@link AsyncStream}中同名方法的含义相同。
+     * 模板中的action会被多个AsyncStream共享执行，所以这里只提供不引用其他AsyncStream的action。
+     * <p>{@link #build()}或{@link #end()}之后Builder不能再使用：最后一个map/filter/flatMap已经被构建出的模板共享，
+     * 继续合并会改变它。</p>
+     */
+    public static final class Builder {
+        private final List<_Action> actions = new ArrayList<>();
+        private final List<_Action> endActions = new ArrayList<>();
+        private boolean built;
+
+        private Builder() {}
+
+        public Builder then(ThenAction thenAction) {
+            return add(new _ThenAction(thenAction));
+        }
+
+        public <T> Builder then(ThenOnEventAction<T> thenOnEventAction) {
+            return add(new _ThenOnEventAction(thenOnEventAction));
+        }
+
+        public <R> Builder then(ThenFunction<R> thenFunction) {
+            return add(new _ThenFunction(thenFunction));
+        }
+
+        public <R, T> Builder then(ThenOnEventFunction<R, T> thenOnEventFunction) {
+            return add(new _ThenOnEventFunction(thenOnEventFunction));
+        }
+
+        /**
+         * see {@link AsyncStream#map}，相邻的map/filter/flatMap合并成一个action
+         */
+        public <R, T> Builder map(ThenOnEventFunction<R, T> mapper) {
+            return fuse(_FusedAction.MAP, mapper);
+        }
+
+        public <T> Builder filter(FilterOnEventFunction<T> filter) {
+            return fuse(_FusedAction.FILTER, filter);
+        }
+
+        public <R, T> Builder flatMap(ThenOnEventFunction<? extends Iterable<R>, T> mapper) {
+            return fuse(_FusedAction.FLAT_MAP, mapper);
+        }
+
+        private Builder fuse(int kind, Object function) {
+            checkNotBuilt();
+            if (function == null) return this;
+            _Action last = actions.isEmpty() ? null : actions.get(actions.size() - 1);
+            if (!(last instanceof _FusedAction) || !((_FusedAction) last).tryFuse(kind, function))
+                actions.add(new _FusedAction(kind, function));
+            return this;
+        }
+
+        public <T> Builder loop(LoopOnEventAction<T> loopAction) {
+            return add(new _LoopOnEventAction(loopAction));
+        }
+
+        public Builder whenEnd(ThenAction endAction) {
+            return addEnd(endAction == null ? null : new _ThenAction(endAction));
+        }
+
+        public <T> Builder whenEnd(ThenOnEventAction<T> endAction) {
+            return addEnd(endAction == null ? null : new _ThenOnEventAction(endAction));
+        }
+
+        /**
+         * build a pipeline whose instances are end after all the actions are executed
+         */
+        public AsyncPipeline end() {
+            add(AsyncStream.END);
+            return build(true);
+        }
+
+        public AsyncPipeline end(ThenAction endAction) {
+            whenEnd(endAction);
+            return end();
+        }
+
+        public <T> AsyncPipeline end(ThenOnEventAction<T> endAction) {
+            whenEnd(endAction);
+            return end();
+        }
+
+        /**
+         * build a pipeline whose instances can still be extended by {@link AsyncStream#then} etc.
+         */
+        public AsyncPipeline build() {
+            return build(false);
+        }
+
+        private Builder add(_Action action) {
+            checkNotBuilt();
+            actions.add(action);
+            return this;
+        }
+
+        private Builder addEnd(_Action endAction) {
+            checkNotBuilt();
+            if (endAction != null) endActions.add(endAction);
+            return this;
+        }
+
+        private void checkNotBuilt() {
+            if (built) throw new IllegalStateException("pipeline already built");
+        }
+
+        private AsyncPipeline build(boolean closed) {
+            checkNotBuilt();
+            built = true;
+            return new AsyncPipeline(actions.toArray(new _Action[actions.size()]),
+                                     endActions.toArray(new _Action[endActions.size()]), closed);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把大量AsyncStream当作actor邮箱时使用的调度器：固定数量的线程，一个FIFO的运行队列。
+ * <p>绑定到调度器的AsyncStream（{@link #deferredAsync()}、{@link AsyncStream#deferredAsync(Executor)}等）
+ * 在onEvent/then使其可以执行时，只由抢到tick_mutex的线程把它的drainTask放入运行队列，同一AsyncStream在队列中至多出现一次。
+ * 工作线程每次取出一个AsyncStream，最多执行actionsPerTurn个action；还有工作时连同tick_mutex一起放回队尾，
+ * 所以每个AsyncStream一轮占用线程的时间有上限，事件很多的AsyncStream也不会饿死其他AsyncStream。</p>
+ * <p>actionsPerTurn越大，重新入队的开销越小，吞吐量越接近直接drain；越小则每轮的延迟越低。</p>
+ * <pre>
+ * AsyncScheduler scheduler = new AsyncScheduler(4, 64);
+ * AsyncStream actor = scheduler.deferredAsync();
+ * actor.&lt;Message&gt;loop(message -&gt; handle(message));
+ * actor.onEvent(message);//只入队，由调度器的线程执行
+ * </pre>
+ */
+public final class AsyncScheduler implements Executor {
+    private static final AtomicInteger SCHEDULER_ID = new AtomicInteger();
+
+    final _TickBudget turn;
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * @param threads
+     *         工作线程数，线程是守护线程
+     * @param actionsPerTurn
+     *         每个AsyncStream每轮最多执行的action数
+     */
+    public AsyncScheduler(int threads, int actionsPerTurn) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive: " + threads);
+        if (actionsPerTurn <= 0)
+            throw new IllegalArgumentException("actionsPerTurn must be positive: " + actionsPerTurn);
+        this.turn = _TickBudget.of(actionsPerTurn, 0, this);
+        String prefix = "AsyncScheduler-" + SCHEDULER_ID.incrementAndGet() + "-";
+        AtomicInteger threadId = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                                           runnable -> {
+                                               Thread thread = new Thread(runnable,
+                                                                          prefix + threadId.incrementAndGet());
+                                               thread.setDaemon(true);
+                                               return thread;
+                                           });
+        pool.prestartAllCoreThreads();
+    }
+
+    /**
+     * DEFERRED to wait for one async event to happen, actions are executed by this scheduler
+     */
+    public AsyncStream deferredAsync() {return AsyncStream.deferredAsync(this);}
+
+    /**
+     * same as {@link AsyncStream#instantAsync(Object...)} but actions are executed by this scheduler
+     */
+    public AsyncStream instantAsync(Object... events) {return AsyncStream.instantAsync(this, events);}
+
+    /**
+     * same as {@link AsyncStream#boundedAsync(int, OverflowPolicy)} but actions are executed by this scheduler
+     */
+    public AsyncStream boundedAsync(int capacity, OverflowPolicy policy) {
+        return AsyncStream.boundedAsync(this, capacity, policy);
+    }
+
+    /**
+     * 放入运行队列的队尾。调度器关闭后抛出{@link java.util.concurrent.RejectedExecutionException}，
+     * AsyncStream会改为在触发tick的线程中执行
+     */
+    @CalledByMultiThreads
+    @Override public void execute(Runnable command) {
+        pool.execute(command);
+    }
+
+    /**
+     * 不再接受新的AsyncStream轮次，已在队列中的继续执行
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+}
@@ -3,7 +3,10 @@ package lab.mars.util.async;
 import lab.mars.util.async.action.*;
 import lab.mars.special_queue.SpecialQueue;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * <p>
@@ -22,7 +25,8 @@ import java.util.Collection;
  * action执行完毕也有条件，如{@link AsyncStream#when}，则是必须等待多个AsyncStream
  * 都结束了才算执行完毕。</p>
  * <p>action由action添加方法（{@link AsyncStream#then}等）或事件添加方法（{@link AsyncStream#onEvent}）
- * 触发执行，目前只会在触发的线程中执行（单线程顺序执行）。</p>
+ * 触发执行，默认在触发的线程中执行（单线程顺序执行）；通过{@link AsyncStream#deferredAsync(Executor)}等方法
+ * 绑定Executor后，触发线程只负责入队，action链改由Executor中的drain任务执行（同一时刻至多一个drain任务）。</p>
  * <p>应用时需要注意的是{@link AsyncStream#end}方法，此方法是用来结束action链
  * 的定义的，如果不调用{@link AsyncStream#end}方法，则无法判断此AsyncStream是否已经结束。<br>
  * 调用{@link AsyncStream#end}方法后，之后通过{@link AsyncStream#then}等方法添加的action会被直接忽视掉，但{@link AsyncStream#whenEnd}添加的action会起作用</p>
@@ -45,15 +49,101 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      * @fmt:on
      *
      */
-    private static final _Action END = new _Action() {
+    static final _Action END = new _Action() {
         @Override protected void run(AsyncStream asyncStream) {}
     };
     private static final Object NULL = new Object();
-    private SpecialQueue<Object> events = new SpecialQueue<>();
-    private SpecialQueue<_Action> actions = new SpecialQueue<>();
-    private SpecialQueue<_Action> whenEndChain = new SpecialQueue<>();
+    //keep_tick_mutex_if的条件编号，见tick_condition
+    private static final int HAS_END_ACTIONS = 0, HAS_INSTANT_ACTIONS = 1, ACTION_READY = 2, END_ACTION_READY = 3;
+    /**
+     * 取消的传播方向，记录在CANCELLED状态的低两位：向此AsyncStream等待的AsyncStream传播，向等待此AsyncStream的AsyncStream传播
+     */
+    static final int CANCEL_AWAITED = 1, CANCEL_DEPENDENTS = 2;
+    /**
+     * 大部分AsyncStream只有一个action、一个事件，所以事件、action、whenEnd action都先放在一个内联的位置中，
+     * 之后的才放入第一次用到时才创建的队列。内联位置只用一次：为null时第一个元素CAS进去，被取走后置为{@link #TAKEN}，
+     * 已被占用或者已被取走时都放入队列，所以内联位置中的元素总在队列中的元素之前，顺序不变。
+     */
+    private static final Object TAKEN = new Object();
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AsyncStream, Object>
+            FIRST_EVENT = AtomicReferenceFieldUpdater.newUpdater(AsyncStream.class, Object.class, "firstEvent"),
+            FIRST_ACTION = AtomicReferenceFieldUpdater.newUpdater(AsyncStream.class, Object.class, "firstAction"),
+            FIRST_END_ACTION = AtomicReferenceFieldUpdater.newUpdater(AsyncStream.class, Object.class, "firstEndAction");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AsyncStream, SpecialQueue>
+            EVENTS = AtomicReferenceFieldUpdater.newUpdater(AsyncStream.class, SpecialQueue.class, "events"),
+            ACTIONS = AtomicReferenceFieldUpdater.newUpdater(AsyncStream.class, SpecialQueue.class, "actions"),
+            WHEN_END_CHAIN = AtomicReferenceFieldUpdater.newUpdater(AsyncStream.class, SpecialQueue.class, "whenEndChain");
+    private volatile Object firstEvent, firstAction, firstEndAction;
+    private volatile SpecialQueue<Object> events;
+    private volatile SpecialQueue<_Action> actions;
+    private volatile SpecialQueue<_Action> whenEndChain;
+    /**
+     * 非null时，外部事件存放在此有界队列中，events只存放action回传的事件
+     */
+    private final _BoundedEventQueue bounded;
 
     private ExceptionHandler exceptionHandler = null;
+    /**
+     * 导致流结束的错误，由{@link #join()}等方法抛出
+     */
+    private volatile Throwable failure;
+    /**
+     * AWAIT时正在等待的AsyncStream、{@link _JoinNode}、{@link _DelayAction}，或者带超时地等待AsyncStream时的{@link _Deadline}，
+     * 用于向下传播取消，以及在等待中结束时取消定时
+     */
+    private volatile Object awaiting;
+    /**
+     * 到期的{@link _Deadline}，由持有tick_mutex的线程以超时结束此AsyncStream
+     */
+    private volatile _Deadline expired;
+    /**
+     * 最后添加的action是{@link _FusedAction}时指向它，之后的map/filter等尝试合并到其中
+     */
+    private volatile _FusedAction lastFused;
+    /**
+     * null则在触发tick的线程中直接执行action链，否则将drainTask提交到此executor中执行
+     */
+    private final Executor executor;
+    private final Runnable drainTask;
+    /**
+     * 每一轮drain的预算，用完后如果还持有tick_mutex，就把drain交给executor（没有executor时交给预算中的executor），
+     * 排在同一executor上的其他任务之后。null表示不限制，见{@link AsyncScheduler}与{@link #tickBudget}。
+     * volatile：{@link #tickBudget}可能在其他线程已经开始drain之后才调用
+     */
+    private volatile _TickBudget budget;
+    /**
+     * 共享的action模板（见{@link AsyncPipeline}），先执行模板中的action，再执行动态添加到actions中的action，
+     * cursor与endCursor分别指向模板中下一个要执行的action与whenEnd action
+     */
+    private final AsyncPipeline pipeline;
+    private int cursor, endCursor;
+    /**
+     * 由系统属性<code>lab.mars.util.async.trampoline</code>开启时，所有AsyncStream默认都是trampolined的
+     */
+    private static final boolean TRAMPOLINE_DEFAULT = Boolean.getBoolean("lab.mars.util.async.trampoline");
+    /**
+     * 是否有trampolined的AsyncStream，没有时tick不需要查询ThreadLocal。一旦为true就不再改变，
+     * volatile保证其他线程drain trampolined的AsyncStream时能看到，不会退回到递归drain
+     */
+    private static volatile boolean trampolineUsed = TRAMPOLINE_DEFAULT;
+    /**
+     * 见{@link #trampolined()}
+     */
+    private boolean trampolined = TRAMPOLINE_DEFAULT;
+    /**
+     * loop类action在run中记录是否结束循环，供postcondition读取。action本身不保存状态，才能在多个AsyncStream之间共享
+     */
+    boolean loopTerminated;
+    /**
+     * 进入当前status的时间，只在安装了{@link AsyncStreamProbe}时更新
+     */
+    private long statusSince;
+    /**
+     * {@link AsyncStreamProbe#awaitStarted}返回的标记，在进入AWAIT之前写入，只在安装了探针时使用
+     */
+    private Object awaitProbe;
 
 
     /**
@@ -61,17 +151,47 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      *         true if no need to wait for one event to trigger engine processing
      */
     private AsyncStream(boolean isInstant) {
+        this(isInstant, null);
+    }
+
+    /**
+     * @param executor
+     *         executor to run the action chain on, null to run it on the thread which triggers the tick
+     */
+    private AsyncStream(boolean isInstant, Executor executor) {
+        this(isInstant, executor, null);
+    }
+
+    AsyncStream(boolean isInstant, Executor executor, _BoundedEventQueue bounded) {
+        this(isInstant, executor, bounded, AsyncPipeline.EMPTY);
+    }
+
+    AsyncStream(boolean isInstant, Executor executor, _BoundedEventQueue bounded, AsyncPipeline pipeline) {
 //        set_status(isInstant ? INSTANT : DEFERRED);
         lazySet_status(isInstant ? INSTANT : DEFERRED);
+        if (_Probe.ENABLED) statusSince = System.nanoTime();
         set_tick_mutex(false);
-        set_chainClosed(false);
+        set_chainClosed(pipeline.closed);
+        this.executor = executor;
+        this.drainTask = executor == null ? null : this::drainOnCurrentThread;
+        this.budget = executor instanceof AsyncScheduler ? ((AsyncScheduler) executor).turn : _TickBudget.DEFAULT;
+        this.bounded = bounded;
+        this.pipeline = pipeline;
     }
 
     /**
      * provide some events to consume. these events are executed when constructor is called
      */
     private AsyncStream(Object[] events) {
-        this(true);//at least one event, trigger engine processing
+        this(null, events);
+    }
+
+    private AsyncStream(Executor executor, Object[] events) {
+        this(executor, events, AsyncPipeline.EMPTY);
+    }
+
+    AsyncStream(Executor executor, Object[] events, AsyncPipeline pipeline) {
+        this(true, executor, null, pipeline);//at least one event, trigger engine processing
         if (events == null)
             addLast(NULL);
         else
@@ -91,6 +211,52 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      */
     public static AsyncStream instantAsync(Object... events) {return new AsyncStream(events);}
 
+    /**
+     * DEFERRED to wait for one async event to happen. actions are executed by a drain task submitted to the executor, the
+     * threads calling {@link #onEvent}/{@link #then} only enqueue.
+     */
+    public static AsyncStream deferredAsync(Executor executor) {return new AsyncStream(false, executor);}
+
+    /**
+     * same as {@link #instantAsync(Object...)} but actions are executed by a drain task submitted to the executor.
+     */
+    public static AsyncStream instantAsync(Executor executor, Object... events) {
+        return new AsyncStream(executor, events);
+    }
+
+    /**
+     * DEFERRED stream whose event queue holds at most <code>capacity</code> events submitted by {@link #onEvent}, the
+     * <code>policy</code> decides what to do with an event when the queue is full.
+     */
+    public static AsyncStream boundedAsync(int capacity, OverflowPolicy policy) {
+        return boundedAsync(null, capacity, policy);
+    }
+
+    /**
+     * same as {@link #boundedAsync(int, OverflowPolicy)} but actions are executed by a drain task submitted to the executor.
+     */
+    public static AsyncStream boundedAsync(Executor executor, int capacity, OverflowPolicy policy) {
+        return new AsyncStream(false, executor, new _BoundedEventQueue(capacity, policy));
+    }
+
+    /**
+     * DEFERRED stream that receives an increasing Long (starting from 0) every <code>period</code>, at a fixed rate,
+     * until it ends. The timer thread shared by all the AsyncStreams only enqueues the Long, the actions run on the
+     * executor, or on {@link ForkJoinPool#commonPool()} without one.
+     */
+    public static AsyncStream interval(long period, TimeUnit unit) {
+        return interval(null, period, unit);
+    }
+
+    /**
+     * same as {@link #interval(long, TimeUnit)} but actions are executed by a drain task submitted to the executor.
+     */
+    public static AsyncStream interval(Executor executor, long period, TimeUnit unit) {
+        AsyncStream async = new AsyncStream(false, executor);
+        async.addEndAction(new _Interval(async, period, unit));
+        return async;
+    }
+
     public static AsyncStream whenAsync(Collection<AsyncStream> asyncs) {
         return instantAsync().when(asyncs);
     }
@@ -106,6 +272,69 @@ public class AsyncStream extends AsyncStreamAtomicRef {
     public static AsyncStream collectAsync(AsyncStream... asyncs) {
         return instantAsync().collect(asyncs);
     }
+
+    public static AsyncStream whenAnyAsync(Collection<AsyncStream> asyncs) {
+        return instantAsync().whenAny(asyncs);
+    }
+
+    public static AsyncStream whenAnyAsync(AsyncStream... asyncs) {
+        return instantAsync().whenAny(asyncs);
+    }
+
+    public static AsyncStream raceAsync(Collection<AsyncStream> asyncs) {
+        return instantAsync().race(asyncs);
+    }
+
+    public static AsyncStream raceAsync(AsyncStream... asyncs) {
+        return instantAsync().race(asyncs);
+    }
+
+    public static AsyncStream quorumAsync(int k, Collection<AsyncStream> asyncs) {
+        return instantAsync().quorum(k, asyncs);
+    }
+
+    public static AsyncStream quorumAsync(int k, AsyncStream... asyncs) {
+        return instantAsync().quorum(k, asyncs);
+    }
+
+    /**
+     * 使用trampolined方式执行：此AsyncStream在当前线程drain期间，action中触发的其他AsyncStream的tick
+     * （如在action中创建instantAsync()并调用then）不再在当前栈上递归执行，而是放入线程的工作列表，
+     * 由此AsyncStream的drain结束后依次执行，栈的深度不随链条的长度增长。
+     * <p>需要在添加action之前调用。注意action中对其他AsyncStream调用{@link #onEvent}后，事件要等当前action返回之后才会被处理，
+     * 所以action中不能阻塞等待这样的AsyncStream（如{@link #join()}）。</p>
+     */
+    public final AsyncStream trampolined() {
+        if (!trampolineUsed) trampolineUsed = true;
+        trampolined = true;
+        return this;
+    }
+
+    /**
+     * 限制每次drain的工作量：抢到tick_mutex的线程执行了maxActions个action或者经过了maxTime之后，如果还有工作，
+     * 就把剩下的drain交给executor（此AsyncStream绑定了executor时交给绑定的executor），自己返回，
+     * 不会因为其他线程不断调用{@link #onEvent}而一直替它们执行action。
+     * <p>需要在添加action之前调用。时间预算在每个action之后检查，所以单个耗时的action仍会超出预算。</p>
+     *
+     * @param maxActions
+     *         不大于0表示不限制action数
+     * @param maxTime
+     *         不大于0表示不限制时间
+     * @param executor
+     *         null则交给{@link java.util.concurrent.ForkJoinPool#commonPool()}
+     */
+    public final AsyncStream tickBudget(int maxActions, long maxTime, TimeUnit unit, Executor executor) {
+        budget = _TickBudget.of(maxActions, unit.toNanos(maxTime), executor);
+        return this;
+    }
+
+    /**
+     * same as {@link #tickBudget(int, long, TimeUnit, Executor)} but hands off to
+     * {@link java.util.concurrent.ForkJoinPool#commonPool()}
+     */
+    public final AsyncStream tickBudget(int maxActions, long maxTime, TimeUnit unit) {
+        return tickBudget(maxActions, maxTime, unit, null);
+    }
     //endregion
 
     //region ...不同的异步操作
@@ -147,18 +376,146 @@ public class AsyncStream extends AsyncStreamAtomicRef {
         return this;
     }
 
+    //region ...合并的事件操作
+
+    /**
+     * consume one event and pass <code>mapper.onEvent(event)</code> to the next action. unlike {@link
+     * #then(ThenOnEventFunction)} the result is always an event (an AsyncStream is not awaited), so adjacent map, {@link
+     * #filter} and {@link #flatMap} are fused into one action and an event goes through the queue only once.
+     */
+    public final <R, T> AsyncStream map(ThenOnEventFunction<R, T> mapper) {
+        return fuse(_FusedAction.MAP, mapper);
+    }
+
+    /**
+     * consume events until one passes the filter and pass it to the next action, the others are dropped ({@link
+     * Cleanable} events are cleaned). fused with adjacent {@link #map} etc.
+     */
+    public final <T> AsyncStream filter(FilterOnEventFunction<T> filter) {
+        return fuse(_FusedAction.FILTER, filter);
+    }
+
+    /**
+     * consume one event and pass all the elements of <code>mapper.onEvent(event)</code> in order to the next actions, an
+     * empty (or null) result makes it consume the next event. fused with adjacent {@link #map} etc.
+     */
+    public final <R, T> AsyncStream flatMap(ThenOnEventFunction<? extends Iterable<R>, T> mapper) {
+        return fuse(_FusedAction.FLAT_MAP, mapper);
+    }
+
+    /**
+     * consume events until <code>count</code> elements are accumulated, then pass the <code>count</code> running results
+     * (<code>accumulator(seed, e1)</code>, <code>accumulator(previous, e2)</code>...) in order to the next actions.
+     * preceding {@link #map}/{@link #filter}/{@link #flatMap} are fused into it.
+     */
+    public final <A, T> AsyncStream scan(int count, A seed, AccumulateFunction<A, T> accumulator) {
+        return fuseTerminal(count, seed, accumulator, true);
+    }
+
+    /**
+     * same as {@link #scan} but only the final result is passed to the next action
+     */
+    public final <A, T> AsyncStream reduce(int count, A seed, AccumulateFunction<A, T> accumulator) {
+        return fuseTerminal(count, seed, accumulator, false);
+    }
+
+    private AsyncStream fuse(int kind, Object function) {
+        if (function == null) return this;
+        _FusedAction fused = lastFused;
+        if (fused == null || !fused.tryFuse(kind, function))
+            dynamicAddAction(new _FusedAction(kind, function));
+        return this;
+    }
+
+    private AsyncStream fuseTerminal(int count, Object seed, AccumulateFunction accumulator, boolean emitsEach) {
+        if (accumulator == null) return this;
+        _FusedAction fused = lastFused;
+        if (fused == null || !fused.tryTerminate(count, seed, accumulator, emitsEach))
+            dynamicAddAction(new _FusedAction(count, seed, accumulator, emitsEach));
+        return this;
+    }
+
+    //endregion
+
+    /**
+     * like {@link #loop(LoopOnEventAction)}, but each event is first handled by <code>handler</code> on the executor, up to
+     * <code>parallelism</code> events at the same time, so independent CPU-heavy events can use several cores. the
+     * results are passed to <code>consumer</code> on the thread holding the tick, in the order the events were taken if
+     * <code>ordered</code>, otherwise in the order they complete. consumer returns false to end the loop, results
+     * completed afterwards are dropped. an exception thrown by handler ends the stream when its result is due.
+     */
+    public final <R, T> AsyncStream parallelLoop(Executor executor, int parallelism, boolean ordered,
+                                                 ThenOnEventFunction<R, T> handler, LoopOnEventAction<R> consumer) {
+        dynamicAddAction(new _ParallelLoopAction(executor, parallelism, ordered, handler, consumer));
+        return this;
+    }
+
+    /**
+     * route every following event to a sub-stream per key: the sub-stream of a key is created from
+     * <code>template</code> (see {@link AsyncPipeline#deferredAsync(Executor)}) the first time the key is seen, or again
+     * after it has ended. sub-streams run on <code>executor</code>, so different keys are processed concurrently while
+     * events of the same key keep their order. a sub-stream that receives no event for <code>idleTimeout</code> and has
+     * no queued events is evicted with {@link #cancel()} (its whenEnd actions run) within twice idleTimeout, a
+     * non-positive idleTimeout disables eviction. all sub-streams are cancelled when this stream ends.
+     *
+     * @param executor
+     *         null to run the sub-streams on the routing thread, which serializes all keys
+     */
+    public final <K, T> AsyncStream groupBy(ThenOnEventFunction<K, T> keyFunction, AsyncPipeline template,
+                                           Executor executor, long idleTimeout, TimeUnit unit) {
+        dynamicAddAction(new _GroupByAction(this, keyFunction, template, executor, idleTimeout, unit));
+        return this;
+    }
+
+    /**
+     * same as {@link #then(ThenOnEventAction)} but consumes up to maxEvents events that are currently available (at
+     * least one) and hands them over in one call, e.g. to write them in one commit.
+     */
+    public final <T> AsyncStream thenBatch(int maxEvents, ThenOnEventsAction<T> thenAction) {
+        dynamicAddAction(new _ThenOnEventsAction(maxEvents, thenAction));
+        return this;
+    }
+
+    /**
+     * same as {@link #loop(LoopOnEventAction)} but each round consumes up to maxEvents events that are currently
+     * available (at least one), see {@link #thenBatch(int, ThenOnEventsAction)}
+     */
+    public final <T> AsyncStream loopBatch(int maxEvents, LoopOnEventsAction<T> loopAction) {
+        dynamicAddAction(new _LoopOnEventsAction(maxEvents, loopAction));
+        return this;
+    }
+
     public final AsyncStream await(AsyncStream anotherAsync) {
         if (anotherAsync == null) return this;
         dynamicAddAction(new _AwaitAsyncStream(anotherAsync));
         return this;
     }
 
+    /**
+     * 进入AWAIT等待delay之后再执行之后的action，等待期间不占用线程。所有AsyncStream共享的时间轮线程只负责唤醒，
+     * 之后的action在executor中执行，没有executor时在{@link ForkJoinPool#commonPool()}中执行，精度为时间轮的一个tick。
+     */
+    public final AsyncStream delay(long delay, TimeUnit unit) {
+        dynamicAddAction(new _DelayAction(delay, unit));
+        return this;
+    }
+
+    /**
+     * same as {@link #await(AsyncStream)}, but if anotherAsync doesn't end within the timeout, this stream ends with a
+     * {@link TimeoutException} (passed to the {@link ExceptionHandler}).
+     */
+    public final AsyncStream await(AsyncStream anotherAsync, long timeout, TimeUnit unit) {
+        if (anotherAsync == null) return this;
+        dynamicAddAction(new _AwaitAsyncStream(anotherAsync, unit.toNanos(timeout)));
+        return this;
+    }
+
     /**
      * wait until all of the  asyncstreams end.
      */
     public final AsyncStream when(Collection<AsyncStream> asyncs) {
         if (asyncs == null || asyncs.size() == 0) return this;
-        dynamicAddAction(new _WhenAction_Collection(asyncs));
+        dynamicAddAction(_JoinNode.all(asyncs, false));
         return this;
     }
 
@@ -167,16 +524,34 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      */
     public final AsyncStream when(AsyncStream... asyncs) {
         if (asyncs == null || asyncs.length == 0) return this;
-        dynamicAddAction(new _WhenAction_Array(asyncs));
+        dynamicAddAction(_JoinNode.all(Arrays.asList(asyncs), false));
         return this;
     }
 
+    /**
+     * same as {@link #when(Collection)}, but if they don't all end within the timeout, this stream ends with a {@link
+     * TimeoutException} (passed to the {@link ExceptionHandler}).
+     */
+    public final AsyncStream when(Collection<AsyncStream> asyncs, long timeout, TimeUnit unit) {
+        if (asyncs == null || asyncs.size() == 0) return this;
+        dynamicAddAction(_JoinNode.all(asyncs, false).withTimeout(timeout, unit));
+        return this;
+    }
+
+    /**
+     * see {@link #when(Collection, long, TimeUnit)}
+     */
+    public final AsyncStream when(long timeout, TimeUnit unit, AsyncStream... asyncs) {
+        if (asyncs == null || asyncs.length == 0) return this;
+        return when(Arrays.asList(asyncs), timeout, unit);
+    }
+
     /**
      * wait until all of the  asyncstreams end and return an array Object[] contains all the result from each asyncstream
      */
     public final AsyncStream collect(Collection<AsyncStream> asyncs) {
         if (asyncs == null || asyncs.isEmpty()) return this;
-        dynamicAddAction(new _CollectionFunction_Collection(asyncs));
+        dynamicAddAction(_JoinNode.all(asyncs, true));
         return this;
     }
 
@@ -185,7 +560,78 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      */
     public final AsyncStream collect(AsyncStream... asyncs) {
         if (asyncs == null || asyncs.length == 0) return this;
-        dynamicAddAction(new _CollectionFunction_Array(asyncs));
+        dynamicAddAction(_JoinNode.all(Arrays.asList(asyncs), true));
+        return this;
+    }
+
+    /**
+     * wait until the first of the asyncstreams ends normally and pass on its result (the event it leaves, or null). if
+     * all of them end with exceptions, this stream ends with the last exception. the other asyncstreams are not
+     * referenced by this stream any more after the winner is decided.
+     */
+    public final AsyncStream whenAny(Collection<AsyncStream> asyncs) {
+        if (asyncs == null || asyncs.isEmpty()) return this;
+        dynamicAddAction(_JoinNode.partial(asyncs, 1, false, true));
+        return this;
+    }
+
+    /**
+     * see {@link #whenAny(Collection)}
+     */
+    public final AsyncStream whenAny(AsyncStream... asyncs) {
+        if (asyncs == null || asyncs.length == 0) return this;
+        return whenAny(Arrays.asList(asyncs));
+    }
+
+    /**
+     * wait until the first of the asyncstreams ends, whether normally (pass on its result) or with an exception (this
+     * stream ends with the same exception).
+     */
+    public final AsyncStream race(Collection<AsyncStream> asyncs) {
+        if (asyncs == null || asyncs.isEmpty()) return this;
+        dynamicAddAction(_JoinNode.partial(asyncs, 1, true, true));
+        return this;
+    }
+
+    /**
+     * see {@link #race(Collection)}
+     */
+    public final AsyncStream race(AsyncStream... asyncs) {
+        if (asyncs == null || asyncs.length == 0) return this;
+        return race(Arrays.asList(asyncs));
+    }
+
+    /**
+     * wait until k of the asyncstreams end normally and return an array Object[k] contains their results in the order
+     * they ended. if so many of them end with exceptions that k can't be reached, this stream ends with the exception.
+     *
+     * @throws IllegalArgumentException
+     *         if k is not in [1, asyncs.size()]
+     */
+    public final AsyncStream quorum(int k, Collection<AsyncStream> asyncs) {
+        if (asyncs == null) return this;
+        dynamicAddAction(_JoinNode.partial(asyncs, k, false, false));
+        return this;
+    }
+
+    /**
+     * see {@link #quorum(int, Collection)}
+     */
+    public final AsyncStream quorum(int k, AsyncStream... asyncs) {
+        if (asyncs == null) return this;
+        return quorum(k, Arrays.asList(asyncs));
+    }
+
+    /**
+     * 如果此AsyncStream在timeout之内（从现在开始计时）没有结束，则以{@link TimeoutException}结束（交给{@link ExceptionHandler}，
+     * {@link #join()}等方法抛出）。正在执行的action不会被打断，超时在它返回之后生效。
+     * 定时由所有AsyncStream共享的时间轮完成，此AsyncStream结束时自动取消。
+     */
+    public final AsyncStream timeout(long timeout, TimeUnit unit) {
+        if (isEnd()) return this;
+        _Deadline deadline = new _Deadline(this, null, unit.toNanos(timeout));
+        deadline.start();
+        addEndAction(deadline);
         return this;
     }
 
@@ -193,13 +639,13 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      * 当此Async结束时调用此action。与{@link AsyncStream#end(ThenAction)}类似，但不关闭chain(即{@link AsyncStream#chainClosed()}返回false
      */
     public final AsyncStream whenEnd(ThenAction endAction) {
-        if (endAction != null) whenEndChain.offer(new _ThenAction(endAction));
+        if (endAction != null) offer(FIRST_END_ACTION, WHEN_END_CHAIN, new _ThenAction(endAction));
         tick();
         return this;
     }
 
     public final <T> AsyncStream whenEnd(ThenOnEventAction<T> endAction) {
-        if (endAction != null) whenEndChain.offer(new _ThenOnEventAction(endAction));
+        if (endAction != null) offer(FIRST_END_ACTION, WHEN_END_CHAIN, new _ThenOnEventAction(endAction));
         tick();
         return this;
     }
@@ -216,7 +662,7 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      * add one end action to indicate the stream is end。
      */
     public final AsyncStream end(ThenAction endAction) {
-        if (endAction != null) whenEndChain.offer(new _ThenAction(endAction));
+        if (endAction != null) offer(FIRST_END_ACTION, WHEN_END_CHAIN, new _ThenAction(endAction));
         end();
         return this;
     }
@@ -225,18 +671,223 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      * add one end action to indicate the stream is end。
      */
     public final <T> AsyncStream end(ThenOnEventAction<T> endAction) {
-        if (endAction != null) whenEndChain.offer(new _ThenOnEventAction(endAction));
+        if (endAction != null) offer(FIRST_END_ACTION, WHEN_END_CHAIN, new _ThenOnEventAction(endAction));
         end();
         return this;
     }
 
     //endregion
 
+    //region ...阻塞等待结果
+
+    /**
+     * 阻塞直到此AsyncStream结束，返回结束后剩下的第一个事件（即{@link #whenEnd(ThenOnEventAction)}会收到的事件，但不消费它），
+     * 没有事件则返回null。使用{@link WaitStrategy#PARK}等待，不响应中断（返回时保留中断状态）。
+     * <p>不能在此AsyncStream自己的action中调用，否则结束它的tick永远不会执行。</p>
+     *
+     * @throws CompletionException
+     *         if the stream is ended by an exception
+     * @throws CancellationException
+     *         if the stream is cancelled
+     */
+    public final Object join() {
+        return join(WaitStrategy.PARK);
+    }
+
+    /**
+     * same as {@link #join()} but waits with the given strategy
+     */
+    public final Object join(WaitStrategy strategy) {
+        _Waiter waiter = addWaiter();
+        try {
+            waiter.await(strategy, Long.MAX_VALUE, false);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);//uninterruptible
+        }
+        Throwable failure = waiter.failure();
+        if (failure instanceof CancellationException) throw (CancellationException) failure;
+        if (failure != null) throw new CompletionException(failure);
+        return waiter.result();
+    }
+
+    /**
+     * same as {@link #get(long, TimeUnit, WaitStrategy)} with {@link WaitStrategy#PARK}
+     */
+    public final Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return get(timeout, unit, WaitStrategy.PARK);
+    }
+
+    /**
+     * 最多等待timeout，返回值与{@link #join()}相同。超时或者被中断后等待对象被放弃，不再引用当前线程，
+     * 只剩一个空对象留在whenEnd链中，直到此AsyncStream结束。
+     *
+     * @throws ExecutionException
+     *         if the stream is ended by an exception
+     * @throws CancellationException
+     *         if the stream is cancelled
+     */
+    public final Object get(long timeout, TimeUnit unit, WaitStrategy strategy)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (Thread.interrupted()) throw new InterruptedException();
+        _Waiter waiter = addWaiter();
+        if (!waiter.await(strategy, Math.max(0, unit.toNanos(timeout)), true))
+            throw new TimeoutException();
+        Throwable failure = waiter.failure();
+        if (failure instanceof CancellationException) throw (CancellationException) failure;
+        if (failure != null) throw new ExecutionException(failure);
+        return waiter.result();
+    }
+
+    /**
+     * 不等待：此AsyncStream已经结束、whenEnd链已经执行完并且没有线程持有tick_mutex时，返回值与{@link #join()}相同，
+     * 否则返回valueIfAbsent（whenEnd链中的action可能很慢，或者在等待永远不会来的事件）。
+     *
+     * @return valueIfAbsent if the result is not available yet
+     * @throws CompletionException
+     *         if the stream is ended by an exception
+     * @throws CancellationException
+     *         if the stream is cancelled
+     */
+    public final Object getNow(Object valueIfAbsent) {
+        //先读tick_mutex，持有者让出之前对whenEnd链和事件队列的修改都可见
+        if (!isEnd() || get_tick_mutex() || hasMoreEndActions()) return valueIfAbsent;
+        Throwable failure = failure();
+        if (failure instanceof CancellationException) throw (CancellationException) failure;
+        if (failure != null) throw new CompletionException(failure);
+        return peekEvent();
+    }
+
+    private _Waiter addWaiter() {
+        _Waiter waiter = new _Waiter(Thread.currentThread());
+        addEndAction(waiter);
+        return waiter;
+    }
+
+    //endregion
+
+    //region ...取消
+
+    /**
+     * 放弃此AsyncStream：立即进入结束状态（{@link #isEnd()}与{@link #isCancelled()}返回true），
+     * 清空还未执行的action和还未消费的事件（对{@link Cleanable}事件调用clean），whenEnd链中的action照常执行，
+     * 但需要事件的whenEnd action不会再被满足，直接丢弃。{@link #join()}等方法抛出{@link CancellationException}。
+     * 不向其他AsyncStream传播：正在{@link #await}此AsyncStream（包括then回传此AsyncStream）的等待者不会被取消，
+     * 而是以{@link CancellationException}结束（交给{@link ExceptionHandler}）。
+     *
+     * @return false if the stream has already ended
+     */
+    @CalledByMultiThreads
+    public final boolean cancel() {
+        return cancel(0);
+    }
+
+    /**
+     * @param propagate
+     *         true则同时取消此AsyncStream正在等待的AsyncStream（{@link #await}、then回传的AsyncStream、
+     *         {@link #when}等的子AsyncStream，并继续向下传播），以及等待此AsyncStream的AsyncStream（并继续向上传播）。
+     *         向下传播的取消不再向上传播，反之亦然，所以共享的子AsyncStream的其他等待者不会被取消，
+     *         而是与{@link #cancel()}时一样以{@link CancellationException}结束。
+     * @return false if the stream has already ended
+     * @see #cancel()
+     */
+    @CalledByMultiThreads
+    public final boolean cancel(boolean propagate) {
+        return cancel(propagate ? CANCEL_AWAITED | CANCEL_DEPENDENTS : 0);
+    }
+
+    @CalledByMultiThreads
+    boolean cancel(int propagation) {
+        if (!finish(CANCELLED | propagation)) return false;
+        if ((propagation & CANCEL_AWAITED) != 0) {
+            Object target = awaited(awaiting);
+            if (target instanceof AsyncStream)
+                ((AsyncStream) target).cancel(CANCEL_AWAITED);
+            else if (target instanceof _JoinNode)
+                ((_JoinNode) target).cancelChildren();
+        }
+        tick();//由持有tick_mutex的线程清空队列并执行whenEnd链
+        return true;
+    }
+
+    /**
+     * {@link _Deadline}到期时在时间轮线程中调用，由持有tick_mutex的线程以{@link TimeoutException}结束此AsyncStream
+     */
+    @CalledByMultiThreads
+    void expire(_Deadline deadline) {
+        if (isEnd() || !deadline.isFor(awaiting)) return;
+        //同时到期时整个stream的期限优先，它总是生效
+        if (expired == null || deadline.isForStream()) expired = deadline;
+        tickAsync();
+    }
+
+    /**
+     * 与{@link #onEvent(Object)}相同，但由{@link #tickAsync()}触发
+     */
+    @CalledByMultiThreads
+    boolean onEventAsync(Object event) {
+        if (isEnd() || !addLast(event)) return false;
+        transition(DEFERRED, INSTANT);
+        tickAsync();
+        return true;
+    }
+
+    /**
+     * 与{@link #wakeUp(Object)}相同（没有回传的事件），但由{@link #tickAsync()}触发
+     */
+    @CalledByMultiThreads
+    void wakeUpAsync() {
+        awaiting = null;
+        transition(AWAIT, INSTANT);//失败说明已被取消，tick中会清理
+        tickAsync();
+    }
+
+    /**
+     * 时间轮线程中触发tick：只抢tick_mutex，drain交给绑定的executor，没有绑定时交给{@link ForkJoinPool#commonPool()}。
+     * 所有AsyncStream共享一个时间轮线程，在其中执行action会推迟其他所有的定时
+     */
+    @CalledByMultiThreads
+    void tickAsync() {
+        if (!cas_tick_mutex(false, true)) {
+            if (_Probe.ENABLED) _Probe.PROBE.tickContended(this);
+            return;
+        }
+        if (_Probe.ENABLED) _Probe.PROBE.tickAcquired(this);
+        handOff(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 清空action和事件，只在被取消后的tick中调用
+     */
+    @CalledBySingleThread
+    private void purge() {
+        cursor = pipeline.actions.length;
+        while (poll(FIRST_ACTION, ACTIONS) != null) ;
+        Object event;
+        while ((event = pollRawEvent()) != null)
+            if (event instanceof Cleanable)
+                ((Cleanable) event).clean();
+        purgeTypedEvents();
+    }
+
+    /**
+     * 子类清空自己的事件队列
+     */
+    @CalledBySingleThread
+    void purgeTypedEvents() {}
+    //endregion
+
+    @CalledByMultiThreads
+    void addEndAction(_Action endAction) {
+        offer(FIRST_END_ACTION, WHEN_END_CHAIN, endAction);
+        tick();
+    }
+
     @CalledByMultiThreads
-    private void dynamicAddAction(_Action typedAction) {
+    void dynamicAddAction(_Action typedAction) {
         if (typedAction == null) return;
         if (typedAction != END || cas_chainClosed(false, true))
-            actions.offer(typedAction);//use END to close chain
+            offer(FIRST_ACTION, ACTIONS, typedAction);//use END to close chain
+        lastFused = typedAction instanceof _FusedAction ? (_FusedAction) typedAction : null;
 
         tick();//tick executed here is for INSTANT actions or provided events.
     }
@@ -248,15 +899,80 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      * 新的从CollectFunction返回的event。不禁止的话，就无法保证这点。
      */
     /*onEvent方法会在多线程中调用，而tick方法由tick_mutex保护，仅由一个线程执行*/
+
+    /**
+     * @return false if the stream has ended or the event is not enqueued because the bounded queue is full (see {@link
+     * OverflowPolicy})
+     */
     @CalledByMultiThreads
-    public final void onEvent(Object event) {
-        if (isEnd()) return;
-        addLast(event);
+    public final boolean onEvent(Object event) {
+        if (isEnd()) return false;
+        if (!addLast(event)) return false;
         //此CAS操作的cost仅在初始情况下发生一次。
         //此处使用CAS更新awaitMode的原因是，如果不是cas，那么设置instant的操作
         // 可以无限阻塞（意思是可以之后随时执行），这会使得WhenAction中设置awaitMode=AWAIT无效化。
-        cas_status(DEFERRED, INSTANT);
+        transition(DEFERRED, INSTANT);
+        tick();
+        return true;
+    }
+
+    /**
+     * 批量提交事件，所有事件依次入队后只触发一次tick，避免每个事件都做一次cas_status与tick_mutex竞争。
+     *
+     * @return number of events enqueued
+     */
+    @CalledByMultiThreads
+    public final int onEvents(Object... events) {
+        if (events == null) return 0;
+        return onEvents(events, 0, events.length);
+    }
+
+    /**
+     * 批量提交events[offset, offset+length)中的事件，只触发一次tick。
+     *
+     * @return number of events enqueued
+     */
+    @CalledByMultiThreads
+    public final int onEvents(Object[] events, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > events.length)
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", size=" + events.length);
+        if (length == 0 || isEnd()) return 0;
+        int accepted = 0;
+        for (int i = offset, end = offset + length; i < end; i++)
+            if (enqueueBatched(events[i])) accepted++;
+        if (accepted == 0) return 0;
+        if (_Probe.ENABLED) _Probe.PROBE.eventsOffered(this, accepted);
+        transition(DEFERRED, INSTANT);
+        tick();
+        return accepted;
+    }
+
+    /**
+     * 批量提交事件，按照集合迭代顺序入队，只触发一次tick。
+     *
+     * @return number of events enqueued
+     */
+    @CalledByMultiThreads
+    public final int onEvents(Collection<?> events) {
+        if (events == null || events.isEmpty() || isEnd()) return 0;
+        int accepted = 0;
+        for (Object event : events)
+            if (enqueueBatched(event)) accepted++;
+        if (accepted == 0) return 0;
+        if (_Probe.ENABLED) _Probe.PROBE.eventsOffered(this, accepted);
+        transition(DEFERRED, INSTANT);
         tick();
+        return accepted;
+    }
+
+    /**
+     * 对于有界AsyncStream，返回一个在事件队列有空位时结束的AsyncStream，用来在{@link OverflowPolicy#REJECT}
+     * 拒绝事件后等待重新提交（如<code>async.whenSpace().whenEnd(() -&gt; async.onEvent(event))</code>）；
+     * 无界AsyncStream则返回一个已经结束的AsyncStream。
+     */
+    public final AsyncStream whenSpace() {
+        if (bounded == null) return instantAsync().end();
+        return bounded.whenSpace();
     }
 
     /**
@@ -264,62 +980,258 @@ public class AsyncStream extends AsyncStreamAtomicRef {
      */
     public final void onEvent() {
         if (isEnd()) return;
-        cas_status(DEFERRED, INSTANT);
+        transition(DEFERRED, INSTANT);
         tick();
     }
 
-    @SuppressWarnings("unchecked")
-    private void tick() {
+    void tick() {
         /**因为所有情况下只有一个tick_mutex==true，而cas_tick_mutex操作要比get_tick_mutex()
          * 更加费时，所以对于大部分false的情况下，先用get_tick_mutex预先进行条件短路
          * 可以提高效率*/
-        if (!cas_tick_mutex(false, true))
+        if (!cas_tick_mutex(false, true)) {
+            if (_Probe.ENABLED) _Probe.PROBE.tickContended(this);
+            return;
+        }
+        if (_Probe.ENABLED) _Probe.PROBE.tickAcquired(this);
+        if (executor == null) {
+            drainOnCurrentThread();
+            return;
+        }
+        //tick_mutex由drainTask继承，drainTask中通过keep_tick_mutex_if让出，所以同一时刻至多只有一个drainTask
+        handOff(null);
+    }
+
+    /**
+     * 调用前必须已经持有tick_mutex，由drainTask继承。没有绑定executor时只有预算用完或者由时间轮触发时才会交出，
+     * 这时才创建drainTask
+     *
+     * @param fallback
+     *         没有绑定executor时交给此executor
+     */
+    private void handOff(Executor fallback) {
+        try {
+            if (executor != null)
+                executor.execute(drainTask);
+            else
+                fallback.execute(this::drainOnCurrentThread);
+        } catch (RejectedExecutionException e) {
+            drain(null);//executor已关闭或饱和，只能在当前线程中执行
+        }
+    }
+
+    /**
+     * 执行一轮drain，预算用完时仍持有tick_mutex，交给executor执行下一轮
+     */
+    private void drainTurn() {
+        _TickBudget budget = this.budget;
+        if (drain(budget)) handOff(budget.executor);
+    }
+
+    /**
+     * 调用前必须已经持有tick_mutex。当前线程正在trampolined的drain中时，把此AsyncStream（连同tick_mutex）
+     * 交给{@link _Trampoline}，由最外层的drain执行，否则直接drain。
+     */
+    private void drainOnCurrentThread() {
+        if (!trampolineUsed) {
+            drainTurn();
+            return;
+        }
+        _Trampoline trampoline = _Trampoline.current();
+        if (trampoline.active) {
+            trampoline.defer(this);
+            return;
+        }
+        if (!trampolined) {
+            drainTurn();
             return;
+        }
+        trampoline.active = true;
+        try {
+            drainTurn();
+        } finally {
+            try {
+                AsyncStream next;
+                while ((next = trampoline.poll()) != null)
+                    next.drainTurn();
+            } finally {
+                trampoline.active = false;
+            }
+        }
+    }
+
+    /**
+     * 调用前必须已经持有tick_mutex
+     *
+     * @param budget
+     *         null表示不限制
+     * @return true则预算已用完，仍持有tick_mutex（可能已经没有可执行的action，由下一轮drain让出）；false则已让出tick_mutex
+     */
+    @CalledBySingleThread
+    @SuppressWarnings("unchecked")
+    private boolean drain(_TickBudget budget) {
+        if (!_Probe.ENABLED)
+            return _drain(budget);
+        Object probe = _Probe.PROBE.drainStarted(this);
+        try {
+            return _drain(budget);
+        } finally {
+            _Probe.PROBE.drainFinished(this, probe);
+        }
+    }
 
+    private boolean _drain(_TickBudget budget) {
+        long actions = Long.MAX_VALUE;
+        boolean timed = false;
+        long until = 0;
+        if (budget != null) {
+            if (budget.actions > 0) actions = budget.actions;
+            if (budget.nanos > 0) {
+                timed = true;
+                until = System.nanoTime() + budget.nanos;
+            }
+        }
         outer:
         while (true)
             if (isEnd()) {
-                while (keep_tick_mutex_if(whenEndChain::notEmpty)
-                        && executeAction(whenEndChain)) ;
+                if (isCancelled()) purge();
+                while (keep_tick_mutex_if(HAS_END_ACTIONS)
+                        && executeAction(peekEndAction(), true))
+                    if (--actions == 0 || timed && System.nanoTime() - until >= 0) return true;
                 break;
             } else {
                 //cas操作能够保证lazySet生效吗？
-                while (keep_tick_mutex_if(() -> get_status() == INSTANT && actions.notEmpty())) {
-                    _Action action = actions.peek();
+                while (keep_tick_mutex_if(HAS_INSTANT_ACTIONS)) {
+                    if (isEnd()) continue outer;//action出错结束了流，接着执行whenEnd链
+                    _Deadline deadline = expired;
+                    if (deadline != null) {
+                        expired = null;
+                        if (deadline.isFor(awaiting)) {
+                            _exception(new TimeoutException("AsyncStream timed out after "
+                                                                    + TimeUnit.NANOSECONDS.toMillis(deadline.timeoutNanos()) + " ms"));
+                            continue outer;
+                        }
+                        if (!hasMoreActions() || get_status() != INSTANT) continue;//过时的期限
+                    }
+                    _Action action = peekAction();
                     if (action == END) {
 //                        set_status(FINISH);
-                        lazySet_status(FINISH);
+                        transition(INSTANT, FINISH);//失败说明已经被取消
                         continue outer;
-                    } else if (!executeAction(actions))
-                        return;
+                    } else if (!executeAction(action, false))
+                        return false;
+                    else if (--actions == 0 || timed && System.nanoTime() - until >= 0)
+                        return true;
                 }
                 break;
             }
+        return false;
     }
 
-    private boolean executeAction(SpecialQueue<_Action> queue) {
-        _Action action = queue.peek();
+    /**
+     * @return false if tick_mutex is released
+     */
+    private boolean executeAction(_Action action, boolean endChain) {
         assert action != null;
 
-        if (!keep_tick_mutex_if(() -> action.precondition(this)))
-            return false;
+        if (!action.precondition(this)) {
+            if (endChain && isCancelled()) {//事件已被清空，不会再满足，直接丢弃
+                pollEndAction();
+                return true;
+            }
+            //让出tick_mutex后如果又重新获得，队首的action可能已经被其他线程执行过了，所以返回到drain中重新peek
+            return keep_tick_mutex_if(endChain ? END_ACTION_READY : ACTION_READY);
+        }
+        Object probe = _Probe.ENABLED ? _Probe.PROBE.actionStarted(this, action.userFunction()) : null;
         try {
             action.run(this);
         } catch (Exception e) {
             _exception(e);
         }
+        if (_Probe.ENABLED) _Probe.PROBE.actionExecuted(this, probe);
         if (action.postcondition(this))
-            queue.poll();
+            if (endChain) pollEndAction();
+            else pollAction();
         return true;
     }
 
+    @Override
+    protected final boolean tick_condition(int condition) {
+        _Action action;
+        switch (condition) {
+            case HAS_END_ACTIONS:
+                return hasMoreEndActions();
+            case HAS_INSTANT_ACTIONS:
+                int status = get_status();
+                return status >= FINISH || expired != null || status == INSTANT && hasMoreActions();
+            case ACTION_READY://让出时被cancel或者到期的期限也要由持有者处理，它们的tick可能因为没抢到tick_mutex而放弃
+                if (get_status() >= FINISH || expired != null) return true;
+                action = peekAction();
+                return action != null && action.precondition(this);
+            case END_ACTION_READY://结束之后只可能再被取消（丢弃不会再满足的action），FINISH时条件不会再改变
+                if (isCancelled()) return true;
+                action = peekEndAction();
+                return action != null && action.precondition(this);
+            default:
+                return false;
+        }
+    }
+
+    //模板中的action总在动态添加的action之前执行
+    @CalledBySingleThread
+    private boolean hasMoreActions() {
+        return cursor < pipeline.actions.length || !isEmpty(FIRST_ACTION, ACTIONS);
+    }
+
+    @CalledBySingleThread
+    private _Action peekAction() {
+        return cursor < pipeline.actions.length ? pipeline.actions[cursor] : (_Action) peek(FIRST_ACTION, ACTIONS);
+    }
+
+    @CalledBySingleThread
+    private void pollAction() {
+        if (cursor < pipeline.actions.length) cursor++;
+        else poll(FIRST_ACTION, ACTIONS);
+    }
+
+    @CalledBySingleThread
+    private boolean hasMoreEndActions() {
+        return endCursor < pipeline.endActions.length || !isEmpty(FIRST_END_ACTION, WHEN_END_CHAIN);
+    }
+
+    @CalledBySingleThread
+    private _Action peekEndAction() {
+        return endCursor < pipeline.endActions.length ? pipeline.endActions[endCursor]
+                                                     : (_Action) peek(FIRST_END_ACTION, WHEN_END_CHAIN);
+    }
+
+    @CalledBySingleThread
+    private void pollEndAction() {
+        if (endCursor < pipeline.endActions.length) endCursor++;
+        else poll(FIRST_END_ACTION, WHEN_END_CHAIN);
+    }
+
 
     public final boolean chainClosed() {
         return get_chainClosed();
     }
 
     public final boolean isEnd() {
-        return get_status() == FINISH;
+        return get_status() >= FINISH;
+    }
+
+    /**
+     * @return true if the stream is ended by {@link #cancel()}
+     */
+    public final boolean isCancelled() {
+        return get_status() >= CANCELLED;
+    }
+
+    /**
+     * 以{@link #CANCEL_DEPENDENTS}方式取消，等待此AsyncStream的AsyncStream也应被取消
+     */
+    final boolean cancelsDependents() {
+        int status = get_status();
+        return status >= CANCELLED && (status & CANCEL_DEPENDENTS) != 0;
     }
 
     /**
@@ -344,37 +1256,270 @@ public class AsyncStream extends AsyncStreamAtomicRef {
     }
 
     private void _exception(Throwable e) {
+        failure = e;
         if (exceptionHandler != null)
             exceptionHandler.handle(e);
         else
             e.printStackTrace();
 //        set_status(FINISH);//发生错误后，结束执行
-        lazySet_status(FINISH);
+        finish(FINISH);
     }
 
     @CalledBySingleThread
+    @SuppressWarnings("unchecked")
     void addFirst(Object event) {
-        events.push(event == null ? NULL : event);
+        SpecialQueue<Object> queue = queue(EVENTS);
+        Object first = firstEvent;
+        //内联位置还空着时先占掉，否则之后的外部事件会放进去，排到回传的事件之前
+        if (first == null && !FIRST_EVENT.compareAndSet(this, null, TAKEN))
+            first = firstEvent;//生产者刚放入了事件
+        if (first != null && first != TAKEN) {//内联位置中的事件移到队首，才能排在回传的事件之后
+            firstEvent = TAKEN;
+            queue.push(first);
+        }
+        queue.push(event == null ? NULL : event);
+        if (_Probe.ENABLED) _Probe.PROBE.eventsOffered(this, 1);
+    }
+
+    /**
+     * @return false if the bounded queue didn't accept the event
+     */
+    @CalledByMultiThreads
+    boolean addLast(Object event) {
+        if (!enqueue(event)) return false;
+        if (_Probe.ENABLED) _Probe.PROBE.eventsOffered(this, 1);
+        return true;
+    }
+
+    @CalledByMultiThreads
+    private boolean enqueue(Object event) {
+        if (bounded != null)
+            return bounded.offer(event == null ? NULL : event);
+        offer(FIRST_EVENT, EVENTS, event == null ? NULL : event);
+        return true;
     }
 
+    /**
+     * {@link #onEvents}中逐个入队事件，子类可以覆盖此方法把装箱的原始类型事件分流到自己的事件队列
+     */
     @CalledByMultiThreads
-    void addLast(Object event) {
-        events.offer(event == null ? NULL : event);
+    boolean enqueueBatched(Object event) {
+        return enqueue(event);
     }
 
     @CalledBySingleThread
     Object pollEvent() {
-        Object event = events.poll();
+        Object event = pollRawEvent();
+        return event == NULL ? null : event;
+    }
+
+    /**
+     * @return 队首的事件（不消费），没有事件则返回null
+     */
+    @CalledBySingleThread
+    Object peekEvent() {
+        Object event = peek(FIRST_EVENT, EVENTS);
+        if (event == null && bounded != null)
+            event = bounded.peek();
         return event == NULL ? null : event;
     }
 
+    /**
+     * @return 导致流结束的错误，被取消时为{@link CancellationException}
+     */
+    Throwable failure() {
+        return isCancelled() ? new CancellationException() : failure;
+    }
+
     @CalledBySingleThread
     Object pollRawEvent() {
-        return events.poll();
+        Object event = poll(FIRST_EVENT, EVENTS);
+        //回传的事件总在外部事件之前
+        if (event == null && bounded != null)
+            event = bounded.poll();
+        if (_Probe.ENABLED && event != null) _Probe.PROBE.eventConsumed(this);
+        return event;
+    }
+
+    /**
+     * @return 有界事件队列的容量，无界时为{@link Integer#MAX_VALUE}
+     */
+    int eventCapacity() {
+        return bounded == null ? Integer.MAX_VALUE : bounded.capacity();
+    }
+
+    /**
+     * @return true if {@link #onEvent(Object)} returning false while the stream has not ended means the event is
+     * rejected by a full queue and still owned by the caller ({@link OverflowPolicy#REJECT})
+     */
+    boolean rejectsWhenFull() {
+        return bounded != null && bounded.policy() == OverflowPolicy.REJECT;
     }
 
     boolean hasMoreEvents() {
-        return !events.isEmpty();
+        return !isEmpty(FIRST_EVENT, EVENTS) || bounded != null && !bounded.isEmpty();
+    }
+
+    //region ...内联位置加上延迟创建的队列，见TAKEN
+
+    @CalledByMultiThreads
+    @SuppressWarnings("unchecked")
+    private void offer(AtomicReferenceFieldUpdater<AsyncStream, Object> first,
+                       AtomicReferenceFieldUpdater<AsyncStream, SpecialQueue> queue, Object element) {
+        if (first.get(this) == null && first.compareAndSet(this, null, element)) return;
+        queue(queue).offer(element);
+    }
+
+    @CalledBySingleThread
+    private Object peek(AtomicReferenceFieldUpdater<AsyncStream, Object> first,
+                        AtomicReferenceFieldUpdater<AsyncStream, SpecialQueue> queue) {
+        Object element = first.get(this);
+        if (element != null && element != TAKEN) return element;
+        SpecialQueue q = queue.get(this);
+        return q == null ? null : q.peek();
+    }
+
+    @CalledBySingleThread
+    private Object poll(AtomicReferenceFieldUpdater<AsyncStream, Object> first,
+                        AtomicReferenceFieldUpdater<AsyncStream, SpecialQueue> queue) {
+        Object element = first.get(this);
+        if (element != null && element != TAKEN) {
+            first.set(this, TAKEN);//生产者只会CAS null，所以这里不需要CAS
+            return element;
+        }
+        SpecialQueue q = queue.get(this);
+        return q == null ? null : q.poll();
+    }
+
+    private boolean isEmpty(AtomicReferenceFieldUpdater<AsyncStream, Object> first,
+                            AtomicReferenceFieldUpdater<AsyncStream, SpecialQueue> queue) {
+        Object element = first.get(this);
+        if (element != null && element != TAKEN) return false;
+        SpecialQueue q = queue.get(this);
+        return q == null || q.isEmpty();
+    }
+
+    private SpecialQueue queue(AtomicReferenceFieldUpdater<AsyncStream, SpecialQueue> queue) {
+        SpecialQueue q = queue.get(this);
+        if (q != null) return q;
+        q = new SpecialQueue();
+        return queue.compareAndSet(this, null, q) ? q : queue.get(this);
+    }
+    //endregion
+
+    /**
+     * 没有事件、不在AWAIT、也没有线程持有tick_mutex（没有正在执行或者已提交到executor的drain）。
+     * 其他线程调用时只是近似的判断，调用者需要自己保证这期间不会有新的事件
+     */
+    boolean isQuiet() {
+        return get_status() != AWAIT && !get_tick_mutex() && !hasMoreEvents();
+    }
+
+    /**
+     * 所有status的改变都经过这里（构造时的初始status除外），以便通知{@link AsyncStreamProbe}
+     */
+    final boolean transition(int expect, int update) {
+        if (!cas_status(expect, update)) return false;
+        if (_Probe.ENABLED) {
+            long now = System.nanoTime();
+            _Probe.PROBE.statusChanged(this, expect, update, now - statusSince);
+            statusSince = now;
+            if (expect == AWAIT) _Probe.PROBE.awaitFinished(this, awaitProbe);
+        }
+        return true;
+    }
+
+    /**
+     * 把status改为结束状态，已经结束（包括被取消）则不改
+     *
+     * @return false if the stream has already ended
+     */
+    private boolean finish(int endStatus) {
+        while (true) {
+            int status = get_status();
+            if (status >= FINISH) return false;
+            if (transition(status, endStatus)) {
+                if (status == AWAIT) cancelTimers();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 在action中调用，进入AWAIT等待target（AsyncStream或者{@link _JoinNode}），由{@link #wakeUp}唤醒。
+     * 用CAS而不是lazySet，因为{@link #cancel}可能同时在其他线程中把status改为CANCELLED。
+     *
+     * @return false if the stream has been cancelled, the caller should not wait any more
+     */
+    @CalledBySingleThread
+    boolean enterAwait(Object target) {
+        awaiting = target;
+        if (_Probe.ENABLED) awaitProbe = _Probe.PROBE.awaitStarted(this, awaited(target));
+        if (transition(INSTANT, AWAIT)) return true;
+        awaiting = null;
+        return false;
+    }
+
+    /**
+     * 在等待中结束（被取消或者整个stream超时）时取消等待的定时，尽早释放时间轮对此stream的引用。
+     * 定时在进入AWAIT之后才开始，开始时会再检查一次是否已经结束
+     */
+    @CalledByMultiThreads
+    private void cancelTimers() {
+        Object target = awaiting;
+        if (target instanceof _DelayAction)
+            ((_DelayAction) target).cancel();
+        else if (target instanceof _Deadline)
+            ((_Deadline) target).cancel();
+        else if (target instanceof _JoinNode)
+            ((_JoinNode) target).cancelDeadline();
+    }
+
+    /**
+     * 带超时地等待AsyncStream时awaiting是期限，取出被等待的AsyncStream
+     */
+    private static Object awaited(Object awaiting) {
+        return awaiting instanceof _Deadline ? ((_Deadline) awaiting).target() : awaiting;
+    }
+
+    /**
+     * 等待anotherAsync结束，并把它剩下的第一个事件作为回传的事件
+     *
+     * @return false if the stream has been cancelled
+     */
+    @CalledBySingleThread
+    boolean awaitOn(AsyncStream anotherAsync) {
+        if (!enterAwait(anotherAsync)) return false;
+        anotherAsync.addEndAction(new _WakeUpAction(this));
+        return true;
+    }
+
+    /**
+     * 与{@link #awaitOn(AsyncStream)}相同，但超过期限则以超时结束。
+     * 等待期间awaiting是期限本身，此AsyncStream在等待中结束时可以取消定时
+     *
+     * @param deadline
+     *         target为anotherAsync、尚未开始的期限
+     * @return false if the stream has been cancelled
+     */
+    @CalledBySingleThread
+    boolean awaitOn(AsyncStream anotherAsync, _Deadline deadline) {
+        if (!enterAwait(deadline)) return false;
+        deadline.start();
+        anotherAsync.addEndAction(new _WakeUpAction(this));
+        anotherAsync.addEndAction(deadline);
+        return true;
+    }
+
+    /**
+     * 被等待的AsyncStream被取消但不向上传播时，在它的whenEnd链中调用：不唤醒此AsyncStream，而是以{@link CancellationException}结束。
+     * 此AsyncStream仍在AWAIT中，没有线程执行它的action，所以可以在这里调用{@link #_exception}
+     */
+    @CalledByMultiThreads
+    void awaitedCancelled() {
+        if (get_status() == AWAIT)//已被取消则只需在tick中清理
+            _exception(new CancellationException("awaited stream was cancelled"));
+        tick();
     }
 
     //awakeMe方法可能在另一线程中调用，但由于WhenAction或awaitAsync的语义使
@@ -383,8 +1528,12 @@ public class AsyncStream extends AsyncStreamAtomicRef {
 //        if (get_status() != AWAIT) return;//这种情况应该算是Exception
         if (returnFromAwait != null)
             addFirst(returnFromAwait);
+        awaiting = null;
 //        set_status(INSTANT);
-        lazySet_status(INSTANT);
+        if (!transition(AWAIT, INSTANT)) {//已被取消，tick中会清理回传的事件
+            tick();
+            return;
+        }
         onEvent();
     }
 }
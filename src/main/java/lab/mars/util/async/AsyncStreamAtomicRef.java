@@ -1,7 +1,6 @@
 package lab.mars.util.async;
 
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-import java.util.function.Supplier;
 
 import static lab.mars.special_queue.UnsafeAccess.UNSAFE;
 
@@ -12,8 +11,10 @@ import static lab.mars.special_queue.UnsafeAccess.UNSAFE;
  * 本类的效果就是<code>AtomicBoolean chainClosed,tick_mutex;</code>
  * 只不过为了节省内存空间，使用静态的{@link AtomicIntegerFieldUpdater}统一更新volatile变量，
  * 从而节省2个对象的空间大约32 bytes（内存计算参见http://www.javamex.com/tutorials/memory/object_memory_usage.shtml）。。
+ * <p>Java 9及以上使用META-INF/versions/9中基于VarHandle的同名实现（multi-release jar），两者的方法完全一致。</p>
+ * <p>原先的@sun.misc.Contended只在-XX:-RestrictContended时生效，经测试也没什么效果（另两个变量并不会在多线程中多次竞争），
+ * 而且Java 9以后已不存在，所以去掉了。</p>
  */
-@sun.misc.Contended//applicable in Java 8 to avoid False Sharing.经测试，好像没什么效果。。。可能因为另两个变量并不会在多线程中多次竞争
 public class AsyncStreamAtomicRef {
     protected final static long chainClosed_OFFSET, tick_mutex_OFFSET, status_OFFSET;
 
@@ -31,6 +32,10 @@ public class AsyncStreamAtomicRef {
     protected static final int DEFERRED = 1;
     protected static final int AWAIT = 2;
     protected static final int FINISH = 3;
+    /**
+     * 被取消，也是结束状态（status &gt;= FINISH）。低两位记录取消向哪些方向传播，见AsyncStream#cancel
+     */
+    protected static final int CANCELLED = 4;
 
     private volatile int status;
     private volatile int chainClosed;
@@ -90,17 +95,23 @@ public class AsyncStreamAtomicRef {
     /**
      * 当条件不满足时，当前线程让出tick_mutex<p>
      * Double Checking
+     * <p>条件用整数编号表示，由{@link #tick_condition(int)}求值，避免每次传入捕获变量的lambda以及Boolean装箱，
+     * 使tick的稳定路径上不分配对象。</p>
+     * <p>让出之后的第二次检查必须读到其他线程新加入的事件（它们加入后会尝试CAS tick_mutex）。putOrderedInt只是StoreStore，
+     * 之后的volatile读仍可能越过它提前执行（StoreLoad重排序），两边都会以为对方持有tick_mutex而丢失一次tick，
+     * 所以让出之后需要<code>Unsafe.fullFence()</code>。</p>
      *
      * @param condition
-     *         保持tick_mutex的条件
+     *         保持tick_mutex的条件编号
      * @return false则让出tick函数的执行权;true则不让出。
      */
-    protected boolean keep_tick_mutex_if(Supplier<Boolean> condition) {
+    protected final boolean keep_tick_mutex_if(int condition) {
         while (true) {
-            if (!condition.get()) {
+            if (!tick_condition(condition)) {
 //                set_tick_mutex(false);
                 lazySet_tick_mutex(false);
-                if (!condition.get())
+                UNSAFE.fullFence();
+                if (!tick_condition(condition))
                     return false;
                 else if (!cas_tick_mutex(false, true))
                     return false;
@@ -110,4 +121,13 @@ public class AsyncStreamAtomicRef {
             return true;
         }
     }
+
+    /**
+     * @param condition
+     *         条件编号，由子类定义
+     * @return 条件是否成立
+     */
+    protected boolean tick_condition(int condition) {
+        return false;
+    }
 }
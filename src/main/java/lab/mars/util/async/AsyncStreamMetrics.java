@@ -0,0 +1,108 @@
+package lab.mars.util.async;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 汇总所有AsyncStream的计数器，用<code>-Dlab.mars.util.async.probe=metrics</code>安装全局实例{@link #global()}，
+ * 之后可以随时通过{@link #snapshot()}读取（例如定期导出到监控系统）。
+ * <p>计数器都是{@link LongAdder}，多个线程同时更新时不会在同一个缓存行上竞争。</p>
+ * <ul>
+ * <li>eventsOffered - eventsConsumed：还在队列中的事件数；</li>
+ * <li>actionsExecuted / ticksAcquired：每次drain平均执行的action数；</li>
+ * <li>ticksContended / (ticksAcquired + ticksContended)：生产者之间竞争tick_mutex的比例；</li>
+ * <li>nanosIn(status)：所有AsyncStream离开该status时累计的停留时间。</li>
+ * </ul>
+ */
+public class AsyncStreamMetrics implements AsyncStreamProbe {
+    private static final String[] STATUS_NAMES = {"instant", "deferred", "await", "finish", "cancelled"};
+    private static final AsyncStreamMetrics GLOBAL = new AsyncStreamMetrics();
+
+    private final LongAdder eventsOffered = new LongAdder();
+    private final LongAdder eventsConsumed = new LongAdder();
+    private final LongAdder actionsExecuted = new LongAdder();
+    private final LongAdder ticksAcquired = new LongAdder();
+    private final LongAdder ticksContended = new LongAdder();
+    private final LongAdder[] statusNanos = new LongAdder[STATUS_NAMES.length];
+
+    public AsyncStreamMetrics() {
+        for (int i = 0; i < statusNanos.length; i++)
+            statusNanos[i] = new LongAdder();
+    }
+
+    /**
+     * @return 通过系统属性<code>lab.mars.util.async.probe=metrics</code>安装的全局实例
+     */
+    public static AsyncStreamMetrics global() {
+        return GLOBAL;
+    }
+
+    @Override public void eventsOffered(AsyncStream asyncStream, int count) {
+        eventsOffered.add(count);
+    }
+
+    @Override public void eventConsumed(AsyncStream asyncStream) {
+        eventsConsumed.increment();
+    }
+
+    @Override public void actionExecuted(AsyncStream asyncStream, Object token) {
+        actionsExecuted.increment();
+    }
+
+    @Override public void tickAcquired(AsyncStream asyncStream) {
+        ticksAcquired.increment();
+    }
+
+    @Override public void tickContended(AsyncStream asyncStream) {
+        ticksContended.increment();
+    }
+
+    @Override public void statusChanged(AsyncStream asyncStream, int from, int to, long nanosInFrom) {
+        statusNanos[Math.min(from, statusNanos.length - 1)].add(nanosInFrom);
+    }
+
+    public long eventsOffered() {return eventsOffered.sum();}
+
+    public long eventsConsumed() {return eventsConsumed.sum();}
+
+    public long actionsExecuted() {return actionsExecuted.sum();}
+
+    public long ticksAcquired() {return ticksAcquired.sum();}
+
+    public long ticksContended() {return ticksContended.sum();}
+
+    /**
+     * @param status
+     *         0 INSTANT，1 DEFERRED，2 AWAIT，3 FINISH，4 CANCELLED
+     */
+    public long nanosIn(int status) {return statusNanos[status].sum();}
+
+    /**
+     * @return 所有计数器当前的值，按固定顺序排列，键如<code>events.offered</code>、<code>status.await.nanos</code>
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        snapshot.put("events.offered", eventsOffered());
+        snapshot.put("events.consumed", eventsConsumed());
+        snapshot.put("actions.executed", actionsExecuted());
+        snapshot.put("ticks.acquired", ticksAcquired());
+        snapshot.put("ticks.contended", ticksContended());
+        for (int i = 0; i < STATUS_NAMES.length; i++)
+            snapshot.put("status." + STATUS_NAMES[i] + ".nanos", nanosIn(i));
+        return snapshot;
+    }
+
+    /**
+     * 清零所有计数器，与同时进行的更新之间没有原子性
+     */
+    public void reset() {
+        eventsOffered.reset();
+        eventsConsumed.reset();
+        actionsExecuted.reset();
+        ticksAcquired.reset();
+        ticksContended.reset();
+        for (LongAdder nanos : statusNanos)
+            nanos.reset();
+    }
+}
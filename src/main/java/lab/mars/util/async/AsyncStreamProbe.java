@@ -0,0 +1,97 @@
+package lab.mars.util.async;
+
+/**
+ * 观察AsyncStream运行情况的探针。默认不安装，安装方式是在AsyncStream类加载之前设置系统属性
+ * <code>lab.mars.util.async.probe</code>：值为<code>metrics</code>时使用全局的{@link AsyncStreamMetrics#global()}，
+ * 否则为实现此接口、带有public无参构造函数的类名。
+ * <p>未安装时所有调用点都由一个static final的开关守护，JIT会把它们整个消除，没有任何开销。</p>
+ * <p>方法在触发的线程中直接调用（包括onEvent的调用者、drain的线程、时间轮线程），所以实现必须线程安全且足够轻量。
+ * status参数的取值：0 INSTANT，1 DEFERRED，2 AWAIT，3 FINISH，4及以上 CANCELLED。</p>
+ */
+public interface AsyncStreamProbe {
+    /**
+     * count个事件进入了事件队列（包括await回传的事件）
+     */
+    @CalledByMultiThreads
+    default void eventsOffered(AsyncStream asyncStream, int count) {}
+
+    /**
+     * 一个事件离开了事件队列（被action消费或者取消时被清除）
+     */
+    @CalledBySingleThread
+    default void eventConsumed(AsyncStream asyncStream) {}
+
+    /**
+     * 开始执行一个action（包括whenEnd链中的action）
+     *
+     * @param action
+     *         action包装的用户函数，即传给then/loop/map等方法的对象（lambda的类可以区分调用点）；
+     *         库内部的action（end、await、join、delay等）为null
+     * @return 传给{@link #actionExecuted}的标记，例如一个已经开始计时的事件
+     */
+    @CalledBySingleThread
+    default Object actionStarted(AsyncStream asyncStream, Object action) {return null;}
+
+    /**
+     * 执行完一个action（包括抛出异常的情况）
+     *
+     * @param token
+     *         同一线程中对应的{@link #actionStarted}的返回值
+     */
+    @CalledBySingleThread
+    default void actionExecuted(AsyncStream asyncStream, Object token) {}
+
+    /**
+     * 持有tick_mutex的线程开始drain，可能嵌套（action中触发了另一个AsyncStream的drain）
+     *
+     * @return 传给{@link #drainFinished}的标记
+     */
+    @CalledBySingleThread
+    default Object drainStarted(AsyncStream asyncStream) {return null;}
+
+    /**
+     * drain结束，tick_mutex已经让出
+     *
+     * @param token
+     *         同一线程中对应的{@link #drainStarted}的返回值
+     */
+    @CalledBySingleThread
+    default void drainFinished(AsyncStream asyncStream, Object token) {}
+
+    /**
+     * 即将进入AWAIT（await、then回传AsyncStream、when/collect等、delay）
+     *
+     * @param target
+     *         等待的对象，被等待的AsyncStream或者内部的join/delay对象
+     * @return 传给{@link #awaitFinished}的标记
+     */
+    @CalledBySingleThread
+    default Object awaitStarted(AsyncStream asyncStream, Object target) {return null;}
+
+    /**
+     * 离开AWAIT（被唤醒、被取消或者超时），通常与{@link #awaitStarted}不在同一线程
+     *
+     * @param token
+     *         对应的{@link #awaitStarted}的返回值
+     */
+    @CalledByMultiThreads
+    default void awaitFinished(AsyncStream asyncStream, Object token) {}
+
+    /**
+     * tick成功取得了tick_mutex，开始一次drain
+     */
+    @CalledByMultiThreads
+    default void tickAcquired(AsyncStream asyncStream) {}
+
+    /**
+     * tick没能取得tick_mutex（其他线程正在drain），只留下事件或者action由持有者处理
+     */
+    @CalledByMultiThreads
+    default void tickContended(AsyncStream asyncStream) {}
+
+    /**
+     * status从from变为to，nanosInFrom为停留在from中的时间。多个线程同时改变status时只是近似值
+     */
+    @CalledByMultiThreads
+    default void statusChanged(AsyncStream asyncStream, int from, int to, long nanosInFrom) {}
+}
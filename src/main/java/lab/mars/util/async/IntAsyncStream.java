@@ -0,0 +1,103 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.IntLoopOnEventAction;
+import lab.mars.util.async.action.IntThenOnEventAction;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 专门处理int事件的AsyncStream，{@link #onEvent(int)}提交的事件不装箱，直接存放在有界的int环形队列中，
+ * 由{@link #thenInt}、{@link #loopInt}添加的action消费，整个事件路径不分配对象。
+ * <p>int事件与Object事件是两条独立的事件队列：{@link #thenInt}、{@link #loopInt}只消费int事件，
+ * {@link #then(lab.mars.util.async.action.ThenOnEventAction)}等只消费Object事件（包括action回传的事件），
+ * 两者之间仍按照action添加的顺序依次执行。</p>
+ */
+public class IntAsyncStream extends AsyncStream {
+    public static final int DEFAULT_CAPACITY = 1024;
+    private final _IntRing intEvents;
+
+    private IntAsyncStream(Executor executor, int capacity) {
+        super(false, executor, null);
+        intEvents = new _IntRing(capacity);
+    }
+
+    /**
+     * DEFERRED stream with an int event queue of {@link #DEFAULT_CAPACITY}
+     */
+    public static IntAsyncStream intAsync() {return new IntAsyncStream(null, DEFAULT_CAPACITY);}
+
+    /**
+     * @param capacity
+     *         capacity of the int event queue, rounded up to a power of 2
+     */
+    public static IntAsyncStream intAsync(int capacity) {return new IntAsyncStream(null, capacity);}
+
+    /**
+     * same as {@link #intAsync(int)} but actions are executed by a drain task submitted to the executor
+     */
+    public static IntAsyncStream intAsync(Executor executor, int capacity) {return new IntAsyncStream(executor, capacity);}
+
+    /**
+     * @return false if the stream has ended or the int event queue is full
+     */
+    @CalledByMultiThreads
+    public final boolean onEvent(int event) {
+        if (isEnd()) return false;
+        if (!intEvents.offer(event)) return false;
+        if (_Probe.ENABLED) _Probe.PROBE.eventsOffered(this, 1);
+        transition(DEFERRED, INSTANT);
+        tick();
+        return true;
+    }
+
+    /**
+     * 拆箱后与{@link #onEvent(int)}相同。没有这个重载时，{@code Integer}类型的变量（例如从集合中取出的）
+     * 会匹配到{@link AsyncStream#onEvent(Object)}，进入Object事件队列，{@link #thenInt}、{@link #loopInt}收不到。
+     * null不是int事件，仍作为Object事件提交。
+     *
+     * @return false if the stream has ended or the int event queue is full
+     */
+    @CalledByMultiThreads
+    public final boolean onEvent(Integer event) {
+        return event == null ? onEvent((Object) null) : onEvent(event.intValue());
+    }
+
+    /**
+     * thenAction is executed after one int event happened and consume the event
+     */
+    public final IntAsyncStream thenInt(IntThenOnEventAction thenAction) {
+        dynamicAddAction(new _IntThenOnEventAction(thenAction));
+        return this;
+    }
+
+    public final IntAsyncStream loopInt(IntLoopOnEventAction loopAction) {
+        dynamicAddAction(new _IntLoopOnEventAction(loopAction));
+        return this;
+    }
+
+    /**
+     * {@link #onEvents}提交的{@code Integer}与{@link #onEvent(Integer)}一样拆箱进入int事件队列，其他事件（包括null）进入Object事件队列
+     */
+    @CalledByMultiThreads
+    @Override
+    boolean enqueueBatched(Object event) {
+        return event instanceof Integer ? intEvents.offer((Integer) event) : super.enqueueBatched(event);
+    }
+
+    @CalledBySingleThread
+    @Override
+    void purgeTypedEvents() {
+        intEvents.clear();
+    }
+
+    @CalledBySingleThread
+    boolean hasMoreIntEvents() {
+        return !intEvents.isEmpty();
+    }
+
+    @CalledBySingleThread
+    int pollIntEvent() {
+        if (_Probe.ENABLED) _Probe.PROBE.eventConsumed(this);
+        return intEvents.poll();
+    }
+}
@@ -0,0 +1,98 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.LongLoopOnEventAction;
+import lab.mars.util.async.action.LongThenOnEventAction;
+
+import java.util.concurrent.Executor;
+
+/**
+ * {@link IntAsyncStream}的long版本：{@link #onEvent(long)}提交的事件存放在有界的long环形队列中，
+ * 只由{@link #thenLong}、{@link #loopLong}消费，与Object事件队列的关系同{@link IntAsyncStream}。
+ */
+public class LongAsyncStream extends AsyncStream {
+    public static final int DEFAULT_CAPACITY = 1024;
+    private final _LongRing longEvents;
+
+    private LongAsyncStream(Executor executor, int capacity) {
+        super(false, executor, null);
+        longEvents = new _LongRing(capacity);
+    }
+
+    /**
+     * DEFERRED stream with a long event queue of {@link #DEFAULT_CAPACITY}
+     */
+    public static LongAsyncStream longAsync() {return new LongAsyncStream(null, DEFAULT_CAPACITY);}
+
+    /**
+     * @param capacity
+     *         capacity of the long event queue, rounded up to a power of 2
+     */
+    public static LongAsyncStream longAsync(int capacity) {return new LongAsyncStream(null, capacity);}
+
+    /**
+     * same as {@link #longAsync(int)} but actions are executed by a drain task submitted to the executor
+     */
+    public static LongAsyncStream longAsync(Executor executor, int capacity) {return new LongAsyncStream(executor, capacity);}
+
+    /**
+     * @return false if the stream has ended or the long event queue is full
+     */
+    @CalledByMultiThreads
+    public final boolean onEvent(long event) {
+        if (isEnd()) return false;
+        if (!longEvents.offer(event)) return false;
+        if (_Probe.ENABLED) _Probe.PROBE.eventsOffered(this, 1);
+        transition(DEFERRED, INSTANT);
+        tick();
+        return true;
+    }
+
+    /**
+     * 拆箱后与{@link #onEvent(long)}相同，原因见{@link IntAsyncStream#onEvent(Integer)}
+     *
+     * @return false if the stream has ended or the long event queue is full
+     */
+    @CalledByMultiThreads
+    public final boolean onEvent(Long event) {
+        return event == null ? onEvent((Object) null) : onEvent(event.longValue());
+    }
+
+    /**
+     * thenAction is executed after one long event happened and consume the event
+     */
+    public final LongAsyncStream thenLong(LongThenOnEventAction thenAction) {
+        dynamicAddAction(new _LongThenOnEventAction(thenAction));
+        return this;
+    }
+
+    public final LongAsyncStream loopLong(LongLoopOnEventAction loopAction) {
+        dynamicAddAction(new _LongLoopOnEventAction(loopAction));
+        return this;
+    }
+
+    /**
+     * {@link #onEvents}提交的{@code Long}与{@link #onEvent(Long)}一样拆箱进入long事件队列，其他事件（包括null）进入Object事件队列
+     */
+    @CalledByMultiThreads
+    @Override
+    boolean enqueueBatched(Object event) {
+        return event instanceof Long ? longEvents.offer((Long) event) : super.enqueueBatched(event);
+    }
+
+    @CalledBySingleThread
+    @Override
+    void purgeTypedEvents() {
+        longEvents.clear();
+    }
+
+    @CalledBySingleThread
+    boolean hasMoreLongEvents() {
+        return !longEvents.isEmpty();
+    }
+
+    @CalledBySingleThread
+    long pollLongEvent() {
+        if (_Probe.ENABLED) _Probe.PROBE.eventConsumed(this);
+        return longEvents.poll();
+    }
+}
@@ -0,0 +1,20 @@
+package lab.mars.util.async;
+
+/**
+ * 有界AsyncStream（{@link AsyncStream#boundedAsync}）的事件队列已满时的处理策略。
+ */
+public enum OverflowPolicy {
+    /**
+     * 拒绝新事件，{@link AsyncStream#onEvent(Object)}返回false，事件仍归调用者所有（不会调用{@link Cleanable#clean()}）。
+     * 可以通过{@link AsyncStream#whenSpace()}等待队列有空位后再提交。
+     */
+    REJECT,
+    /**
+     * 丢弃队列中最早的事件（会调用{@link Cleanable#clean()}），新事件入队，{@link AsyncStream#onEvent(Object)}返回true。
+     */
+    DROP_OLDEST,
+    /**
+     * 丢弃新事件（会调用{@link Cleanable#clean()}），{@link AsyncStream#onEvent(Object)}返回false。
+     */
+    DROP_NEWEST
+}
@@ -0,0 +1,52 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link AsyncStream#join(WaitStrategy)}、{@link AsyncStream#get(long, java.util.concurrent.TimeUnit, WaitStrategy)}
+ * 等待AsyncStream结束的方式。
+ * <p>{@link #PARK}和{@link #SPIN_THEN_YIELD}都不占用monitor，在虚拟线程中调用时只会卸载虚拟线程，不会钉住（pin）载体线程。</p>
+ */
+public enum WaitStrategy {
+    /**
+     * 一直自旋，延迟最低，但独占一个CPU，只适合等待时间极短且CPU充足的场合
+     */
+    BUSY_SPIN {
+        @Override int idle(int spins, long remainingNanos) {
+            return spins + 1;
+        }
+    },
+    /**
+     * 先自旋{@link #SPINS}次，然后每次检查之间{@link Thread#yield()}
+     */
+    SPIN_THEN_YIELD {
+        @Override int idle(int spins, long remainingNanos) {
+            if (spins < SPINS) return spins + 1;
+            Thread.yield();
+            return spins;
+        }
+    },
+    /**
+     * 用{@link LockSupport}挂起，由结束AsyncStream的线程唤醒，适合等待时间较长或者大量等待者（如每个请求一个虚拟线程）的场合
+     */
+    PARK {
+        @Override int idle(int spins, long remainingNanos) {
+            if (remainingNanos == Long.MAX_VALUE) LockSupport.park(this);
+            else LockSupport.parkNanos(this, remainingNanos);
+            return spins;
+        }
+    };
+
+    static final int SPINS = 100;
+
+    /**
+     * 在两次检查之间调用一次
+     *
+     * @param spins
+     *         已经自旋的次数
+     * @param remainingNanos
+     *         剩余的等待时间，{@link Long#MAX_VALUE}表示不限时
+     * @return 新的自旋次数
+     */
+    abstract int idle(int spins, long remainingNanos);
+}
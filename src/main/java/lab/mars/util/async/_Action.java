@@ -15,4 +15,11 @@ public abstract class _Action {
         return true;
     }
 
+    /**
+     * 此action包装的用户函数（lambda等），库内部的action返回null，见{@link AsyncStreamProbe#actionStarted}
+     */
+    Object userFunction() {
+        return null;
+    }
+
 }
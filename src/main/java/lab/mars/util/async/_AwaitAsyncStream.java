@@ -1,7 +1,5 @@
 package lab.mars.util.async;
 
-import static lab.mars.util.async.AsyncStreamAtomicRef.AWAIT;
-
 /**
  * <p>
  * Created by wumo on 2016/6/1.<br>
@@ -10,14 +8,24 @@ import static lab.mars.util.async.AsyncStreamAtomicRef.AWAIT;
  */
 public class _AwaitAsyncStream extends _Action {
     private AsyncStream anotherAsync = null;
+    /**
+     * 大于0时等待超过此时间则以超时结束
+     */
+    private final long timeoutNanos;
 
     public _AwaitAsyncStream(AsyncStream anotherAsync) {
+        this(anotherAsync, 0);
+    }
+
+    _AwaitAsyncStream(AsyncStream anotherAsync, long timeoutNanos) {
         this.anotherAsync = anotherAsync;
+        this.timeoutNanos = timeoutNanos;
     }
 
     @Override protected void run(AsyncStream asyncStream) throws Exception {
-//        asyncStream.set_status(AWAIT);
-        asyncStream.lazySet_status(AWAIT);//下面的whenEnd包含volatile write，所以此处可以使用lazySet
-        anotherAsync.whenEnd(() -> asyncStream.wakeUp(anotherAsync.pollRawEvent()));
+        if (timeoutNanos > 0)
+            asyncStream.awaitOn(anotherAsync, new _Deadline(asyncStream, anotherAsync, timeoutNanos));
+        else
+            asyncStream.awaitOn(anotherAsync);
     }
 }
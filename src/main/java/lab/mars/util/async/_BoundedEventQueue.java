@@ -0,0 +1,111 @@
+package lab.mars.util.async;
+
+import java.util.ArrayDeque;
+
+/**
+ * 有界AsyncStream中存放外部事件（{@link AsyncStream#onEvent}提交的事件）的环形队列。
+ * action回传的事件（addFirst）仍放在无界的events队列中，它们总是排在外部事件之前，所以两者分开存放并不改变消费顺序。
+ * <p>DROP_OLDEST需要生产者线程移除队首，所以这里用锁保护，临界区只有几次数组读写。</p>
+ */
+public class _BoundedEventQueue {
+    private final Object[] ring;
+    private final OverflowPolicy policy;
+    private int head, size;
+    /**
+     * 等待空位的生产者，每腾出一个空位唤醒一个
+     */
+    private final ArrayDeque<AsyncStream> waiters = new ArrayDeque<>();
+
+    _BoundedEventQueue(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (policy == null) throw new NullPointerException("policy");
+        this.ring = new Object[capacity];
+        this.policy = policy;
+    }
+
+    int capacity() {
+        return ring.length;
+    }
+
+    OverflowPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * @return true if the event is enqueued
+     */
+    @CalledByMultiThreads
+    boolean offer(Object event) {
+        Object dropped;
+        boolean accepted;
+        synchronized (this) {
+            if (size < ring.length) {
+                ring[(head + size++) % ring.length] = event;
+                return true;
+            }
+            switch (policy) {
+                case DROP_OLDEST:
+                    dropped = ring[head];
+                    ring[head] = event;
+                    head = (head + 1) % ring.length;
+                    accepted = true;
+                    break;
+                case DROP_NEWEST:
+                    dropped = event;
+                    accepted = false;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        if (dropped instanceof Cleanable)
+            ((Cleanable) dropped).clean();
+        return accepted;
+    }
+
+    /**
+     * @return null if empty
+     */
+    @CalledBySingleThread
+    Object poll() {
+        Object event;
+        AsyncStream waiter;
+        synchronized (this) {
+            if (size == 0) return null;
+            event = ring[head];
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            size--;
+            waiter = waiters.poll();
+        }
+        if (waiter != null)
+            waiter.onEvent();
+        return event;
+    }
+
+    /**
+     * @return null if empty
+     */
+    synchronized Object peek() {
+        return size == 0 ? null : ring[head];
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return 队列有空位时结束的AsyncStream
+     */
+    AsyncStream whenSpace() {
+        AsyncStream waiter = AsyncStream.deferredAsync().end();
+        synchronized (this) {
+            if (size == ring.length) {
+                waiters.offer(waiter);
+                return waiter;
+            }
+        }
+        waiter.onEvent();
+        return waiter;
+    }
+}
@@ -0,0 +1,75 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AsyncStream#timeout}、带超时的{@link AsyncStream#await}与{@link AsyncStream#when}的期限。
+ * <ul>
+ * <li>作为{@link Runnable}放入{@link _HashedWheelTimer}，到期时让stream以{@link java.util.concurrent.TimeoutException}结束；</li>
+ * <li>作为{@link _Action}放入被等待者（整个stream的期限则是stream自己）的whenEndChain中，被等待者结束时取消定时，
+ * 时间轮不再引用stream；</li>
+ * <li>await/when的期限还会在stream自己在等待中结束（被取消、整个stream超时）时取消，
+ * 带超时地等待AsyncStream时期限本身就是stream的awaiting。</li>
+ * </ul>
+ * target为null时期限针对整个stream，否则只在stream仍在等待target（AWAIT）时才生效。
+ */
+public class _Deadline extends _Action implements Runnable {
+    private final AsyncStream stream;
+    private final Object target;
+    private final long timeoutNanos;
+    private volatile _HashedWheelTimer.Timeout timeout;
+
+    _Deadline(AsyncStream stream, Object target, long timeoutNanos) {
+        this.stream = stream;
+        this.target = target;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * 开始计时。await/when的期限在stream进入AWAIT之后才开始，stream可能已经在等待中结束，
+     * 与{@link AsyncStream}结束时的检查构成双重检查
+     */
+    void start() {
+        timeout = _HashedWheelTimer.shared().schedule(this, timeoutNanos, TimeUnit.NANOSECONDS);
+        if (target != null && stream.isEnd()) cancel();
+    }
+
+    /**
+     * 到期，在时间轮线程中执行
+     */
+    @Override public void run() {
+        stream.expire(this);
+    }
+
+    /**
+     * 被等待者结束
+     */
+    @Override protected void run(AsyncStream asyncStream) {
+        cancel();
+    }
+
+    void cancel() {
+        _HashedWheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null) timeout.cancel();
+    }
+
+    /**
+     * @param awaiting
+     *         stream正在等待的对象，带超时地等待AsyncStream时是期限本身
+     */
+    boolean isFor(Object awaiting) {
+        return target == null || target == awaiting || this == awaiting;
+    }
+
+    Object target() {
+        return target;
+    }
+
+    boolean isForStream() {
+        return target == null;
+    }
+
+    long timeoutNanos() {
+        return timeoutNanos;
+    }
+}
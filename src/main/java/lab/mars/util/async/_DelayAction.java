@@ -0,0 +1,36 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AsyncStream#delay}：执行时stream进入AWAIT并在时间轮中定时，到期时在时间轮线程中唤醒stream，之后的action交给executor执行。
+ * 等待期间不占用tick_mutex，也不阻塞任何线程；stream在等待中结束（被取消、整个stream超时）时同时取消定时。
+ */
+public class _DelayAction extends _Action implements Runnable {
+    private final long delayNanos;
+    private AsyncStream stream;
+    private volatile _HashedWheelTimer.Timeout timeout;
+
+    _DelayAction(long delay, TimeUnit unit) {
+        this.delayNanos = unit.toNanos(delay);
+    }
+
+    @Override protected void run(AsyncStream asyncStream) {
+        stream = asyncStream;
+        if (!asyncStream.enterAwait(this)) return;
+        timeout = _HashedWheelTimer.shared().schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+        if (asyncStream.isEnd()) cancel();//与stream结束时的检查构成双重检查
+    }
+
+    /**
+     * 到期，在时间轮线程中执行
+     */
+    @Override public void run() {
+        stream.wakeUpAsync();
+    }
+
+    void cancel() {
+        _HashedWheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null) timeout.cancel();
+    }
+}
@@ -0,0 +1,219 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.AccumulateFunction;
+import lab.mars.util.async.action.FilterOnEventFunction;
+import lab.mars.util.async.action.ThenOnEventFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * {@link AsyncStream#map}、{@link AsyncStream#filter}、{@link AsyncStream#flatMap}等相邻的无状态操作在构建链时合并成的一个action，
+ * 可以再以{@link AsyncStream#scan}或{@link AsyncStream#reduce}结尾。
+ * <p>与then一样是一次性的：每次取出一个事件依次经过所有操作，被filter丢弃（或者flatMap展开为空）则接着取下一个事件，
+ * 直到产生了输出（以scan/reduce结尾时则是累积了count个元素），再把所有输出按顺序放回事件队列的最前面交给之后的action，
+ * 所以无论合并了多少个操作，每个事件只经过一次队列。</p>
+ * <p>构建链的线程只能在action开始执行之前追加操作：执行时先把state改为SEALED，之后追加失败，调用者改为添加新的action。</p>
+ * <p>只有无状态操作的action不保存执行状态（是否完成记录在{@link AsyncStream#loopTerminated}中），可以放入{@link AsyncPipeline}
+ * 中共享；以scan/reduce结尾的action保存累积的状态，只能属于一个AsyncStream。</p>
+ */
+public class _FusedAction extends _Action {
+    static final int MAP = 0, FILTER = 1, FLAT_MAP = 2;
+    private static final int OPEN = 0, FUSING = 1, SEALED = 2;
+    private static final AtomicIntegerFieldUpdater<_FusedAction> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(_FusedAction.class, "state");
+
+    private volatile int state = OPEN;
+    private int[] kinds = new int[4];
+    private Object[] functions = new Object[4];
+    private int size;
+    private boolean expands;
+    //scan/reduce结尾
+    private AccumulateFunction accumulator;
+    private boolean emitsEach;
+    private int remaining;
+    private Object accumulated;
+    private List<Object> pending;
+
+    _FusedAction(int kind, Object function) {
+        append(kind, function);
+    }
+
+    _FusedAction(int count, Object seed, AccumulateFunction accumulator, boolean emitsEach) {
+        terminate(count, seed, accumulator, emitsEach);
+    }
+
+    /**
+     * 在执行之前追加一个无状态操作
+     *
+     * @return false if the action has started or ends with scan/reduce
+     */
+    @CalledByMultiThreads
+    boolean tryFuse(int kind, Object function) {
+        if (!STATE.compareAndSet(this, OPEN, FUSING)) return false;
+        try {
+            if (accumulator != null) return false;
+            append(kind, function);
+            return true;
+        } finally {
+            state = OPEN;
+        }
+    }
+
+    /**
+     * 在执行之前以scan/reduce结尾
+     *
+     * @return false if the action has started or already ends with scan/reduce
+     */
+    @CalledByMultiThreads
+    boolean tryTerminate(int count, Object seed, AccumulateFunction accumulator, boolean emitsEach) {
+        if (!STATE.compareAndSet(this, OPEN, FUSING)) return false;
+        try {
+            if (this.accumulator != null) return false;
+            terminate(count, seed, accumulator, emitsEach);
+            return true;
+        } finally {
+            state = OPEN;
+        }
+    }
+
+    private void append(int kind, Object function) {
+        if (size == kinds.length) {
+            int[] newKinds = new int[size * 2];
+            Object[] newFunctions = new Object[size * 2];
+            System.arraycopy(kinds, 0, newKinds, 0, size);
+            System.arraycopy(functions, 0, newFunctions, 0, size);
+            kinds = newKinds;
+            functions = newFunctions;
+        }
+        kinds[size] = kind;
+        functions[size++] = function;
+        if (kind == FLAT_MAP) expands = true;
+    }
+
+    private void terminate(int count, Object seed, AccumulateFunction accumulator, boolean emitsEach) {
+        if (count <= 0) throw new IllegalArgumentException("count must be positive: " + count);
+        this.accumulator = accumulator;
+        this.emitsEach = emitsEach;
+        this.remaining = count;
+        this.accumulated = seed;
+        this.pending = new ArrayList<>();
+    }
+
+    private void seal() {
+        while (state != SEALED)
+            if (!STATE.compareAndSet(this, OPEN, SEALED))
+                Thread.yield();//构建链的线程正在追加，很快结束
+    }
+
+    @Override Object userFunction() {return functions[0];}
+
+    @Override
+    protected boolean precondition(AsyncStream asyncStream) {
+        return asyncStream.hasMoreEvents();
+    }
+
+    @Override protected void run(AsyncStream asyncStream) {
+        seal();
+        if (accumulator != null)
+            runAccumulate(asyncStream);
+        else if (expands)
+            runExpand(asyncStream);
+        else
+            runSingle(asyncStream);
+    }
+
+    /**
+     * 没有flatMap时每个事件至多产生一个输出，不需要列表
+     */
+    private void runSingle(AsyncStream asyncStream) {
+        do {
+            Object event = asyncStream.pollEvent();
+            Object result = event;
+            boolean kept = true;
+            for (int i = 0; i < size && kept; i++)
+                if (kinds[i] == MAP)
+                    result = ((ThenOnEventFunction) functions[i]).onEvent(result);
+                else
+                    kept = ((FilterOnEventFunction) functions[i]).test(result);
+            if (event instanceof Cleanable && !(kept && result == event))
+                ((Cleanable) event).clean();
+            if (kept) {
+                asyncStream.addFirst(result);
+                asyncStream.loopTerminated = true;
+                return;
+            }
+        } while (asyncStream.hasMoreEvents());
+        asyncStream.loopTerminated = false;//都被丢弃了，等待下一个事件
+    }
+
+    private void runExpand(AsyncStream asyncStream) {
+        List<Object> out = new ArrayList<>();
+        do {
+            Object event = asyncStream.pollEvent();
+            push(event, 0, out);
+            cleanIfDropped(event, out);
+        } while (out.isEmpty() && asyncStream.hasMoreEvents());
+        asyncStream.loopTerminated = !out.isEmpty();
+        addAllFirst(asyncStream, out);
+    }
+
+    private void runAccumulate(AsyncStream asyncStream) {
+        do {
+            Object event = asyncStream.pollEvent();
+            push(event, 0, pending);
+            if (event != accumulated) cleanIfDropped(event, pending);
+        } while (remaining > 0 && asyncStream.hasMoreEvents());
+        asyncStream.loopTerminated = remaining == 0;
+        if (remaining == 0) {
+            addAllFirst(asyncStream, pending);
+            pending = null;
+            accumulated = null;
+        }
+    }
+
+    /**
+     * 事件从第from个操作开始经过之后的所有操作，输出放入out
+     */
+    private void push(Object event, int from, List<Object> out) {
+        for (int i = from; i < size; i++)
+            switch (kinds[i]) {
+                case MAP:
+                    event = ((ThenOnEventFunction) functions[i]).onEvent(event);
+                    break;
+                case FILTER:
+                    if (!((FilterOnEventFunction) functions[i]).test(event)) return;
+                    break;
+                default:
+                    Iterable<?> expanded = (Iterable<?>) ((ThenOnEventFunction) functions[i]).onEvent(event);
+                    if (expanded != null)
+                        for (Object element : expanded)
+                            push(element, i + 1, out);
+                    return;
+            }
+        if (accumulator == null || remaining == 0) {//累积够了之后多出来的元素原样跟在结果后面，不丢失
+            out.add(event);
+            return;
+        }
+        accumulated = accumulator.apply(accumulated, event);
+        remaining--;
+        if (emitsEach || remaining == 0) out.add(accumulated);
+    }
+
+    private static void cleanIfDropped(Object event, List<Object> out) {
+        if (!(event instanceof Cleanable)) return;
+        for (Object output : out)
+            if (output == event) return;
+        ((Cleanable) event).clean();
+    }
+
+    private static void addAllFirst(AsyncStream asyncStream, List<Object> out) {
+        for (int i = out.size() - 1; i >= 0; i--)
+            asyncStream.addFirst(out.get(i));
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return asyncStream.loopTerminated;
+    }
+}
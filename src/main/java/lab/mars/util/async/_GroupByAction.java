@@ -0,0 +1,113 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.ThenOnEventFunction;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AsyncStream#groupBy}：一直循环的action，把每个事件按key转交给该key的子AsyncStream，子AsyncStream在第一次
+ * 遇到该key时由模板创建（已经结束的也重新创建），在executor中执行，所以不同key并发，同一key保持顺序。
+ * <p>key到子AsyncStream的映射只由持有父AsyncStream tick_mutex的线程读写（转交与淘汰都在run中），所以只需要HashMap。
+ * 时间轮每隔idleTimeout提醒一次淘汰：上一个周期内没有收到事件、队列中也没有事件、也没有在执行action或者等待的子AsyncStream被
+ * {@link AsyncStream#cancel()}（执行其whenEnd链），所以空闲的key在idleTimeout到两倍idleTimeout之间被淘汰。
+ * 父AsyncStream结束时停止定时并取消所有子AsyncStream。</p>
+ */
+public class _GroupByAction extends _Action implements Runnable {
+    private final AsyncStream parent;
+    private final ThenOnEventFunction keyFunction;
+    private final AsyncPipeline template;
+    private final Executor executor;
+    private final long idleNanos;
+    private final Map<Object, Group> groups = new HashMap<>();
+    private volatile boolean sweepDue;
+    private volatile _HashedWheelTimer.Timeout timeout;
+
+    private static final class Group {
+        final AsyncStream stream;
+        boolean active = true;
+
+        Group(AsyncStream stream) {
+            this.stream = stream;
+        }
+    }
+
+    _GroupByAction(AsyncStream parent, ThenOnEventFunction keyFunction, AsyncPipeline template, Executor executor,
+                   long idleTimeout, TimeUnit unit) {
+        this.parent = parent;
+        this.keyFunction = keyFunction;
+        this.template = template;
+        this.executor = executor;
+        this.idleNanos = unit.toNanos(idleTimeout);
+        if (idleNanos > 0)
+            timeout = _HashedWheelTimer.shared().schedule(this, idleNanos, TimeUnit.NANOSECONDS);
+        parent.addEndAction(new _ThenAction(this::close));
+    }
+
+    @Override Object userFunction() {return keyFunction;}
+
+    @Override protected boolean precondition(AsyncStream asyncStream) {
+        return sweepDue || asyncStream.hasMoreEvents();
+    }
+
+    @Override protected void run(AsyncStream asyncStream) {
+        if (sweepDue) {
+            sweepDue = false;
+            sweep();
+        }
+        if (!asyncStream.hasMoreEvents()) return;
+        Object event = asyncStream.pollEvent();
+        Object key = keyFunction.onEvent(event);
+        Group group = groups.get(key);
+        if (group == null || group.stream.isEnd()) {
+            group = new Group(template.deferredAsync(executor));
+            groups.put(key, group);
+        }
+        group.active = true;
+        group.stream.onEvent(event);
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return false;//直到父AsyncStream结束
+    }
+
+    @CalledBySingleThread
+    private void sweep() {
+        for (Iterator<Group> it = groups.values().iterator(); it.hasNext(); ) {
+            Group group = it.next();
+            if (group.stream.isEnd())
+                it.remove();
+            else if (group.active)
+                group.active = false;
+            else if (group.stream.isQuiet()) {//还在执行或者等待中的不能淘汰
+                it.remove();
+                group.stream.cancel();
+            }
+        }
+    }
+
+    /**
+     * 淘汰周期到了，在时间轮线程中执行
+     */
+    @Override public void run() {
+        if (parent.isEnd()) return;
+        sweepDue = true;
+        parent.tickAsync();
+        timeout = _HashedWheelTimer.shared().schedule(this, idleNanos, TimeUnit.NANOSECONDS);
+        if (parent.isEnd()) timeout.cancel();
+    }
+
+    /**
+     * 父AsyncStream结束，在其whenEnd链中执行，此时不会再有run
+     */
+    private void close() {
+        _HashedWheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null) timeout.cancel();
+        for (Group group : groups.values())
+            group.stream.cancel();
+        groups.clear();
+    }
+}
@@ -0,0 +1,180 @@
+package lab.mars.util.async;
+
+import lab.mars.special_queue.SpecialQueue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 所有AsyncStream共享的时间轮（hashed wheel timer），用于{@link AsyncStream#timeout}等与时间相关的操作。
+ * <p>一个守护线程每隔tick推进一格，到期的任务在此线程中执行，所以任务本身只应做很少的工作（如设置标记后tick）。
+ * 添加与取消都是O(1)：添加只把任务放入无锁队列，由时间轮线程在下一格时放入对应的槽；取消只CAS任务的状态，
+ * 再由时间轮线程把它从槽的双向链表中摘除，释放任务引用的对象。</p>
+ * <p>tick的长度由系统属性<code>lab.mars.util.async.timer.tickMillis</code>指定，默认10ms，超时的误差不超过一个tick。</p>
+ */
+public class _HashedWheelTimer {
+    private static final long TICK_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("lab.mars.util.async.timer.tickMillis", 10)));
+    private static final int WHEEL_SIZE = 512;
+    /**
+     * 每格最多从队列中取出的新任务数，避免大量添加时迟迟不推进
+     */
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private static class Holder {
+        static final _HashedWheelTimer SHARED = new _HashedWheelTimer(TICK_NANOS, WHEEL_SIZE);
+    }
+
+    static _HashedWheelTimer shared() {
+        return Holder.SHARED;
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final SpecialQueue<Timeout> pending = new SpecialQueue<>();
+    private final SpecialQueue<Timeout> cancelled = new SpecialQueue<>();
+    private final long startTime;
+    private long tick;
+
+    _HashedWheelTimer(long tickNanos, int wheelSize) {
+        this.tickNanos = tickNanos;
+        this.mask = wheelSize - 1;
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++)
+            wheel[i] = new Bucket();
+        this.startTime = System.nanoTime();
+        Thread worker = new Thread(this::work, "AsyncStream-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return 可以{@link Timeout#cancel()}的句柄
+     */
+    @CalledByMultiThreads
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + Math.max(0, unit.toNanos(delay)) - startTime;
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.offer(timeout);
+        return timeout;
+    }
+
+    private void work() {
+        while (true) {
+            long deadline = waitForNextTick();
+            Timeout timeout;
+            while ((timeout = cancelled.poll()) != null)
+                if (timeout.bucket != null)
+                    timeout.bucket.remove(timeout);
+            transferPending();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep <= 0) return deadline;
+            LockSupport.parkNanos(this, sleep);
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout timeout = pending.poll();
+            if (timeout == null) return;
+            if (timeout.state != Timeout.INIT) continue;
+            long calculated = timeout.deadline / tickNanos;
+            timeout.rounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick);//已经过期的放在当前格
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    public static final class Timeout {
+        private static final int INIT = 0, CANCELLED = 1, EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final _HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = INIT;
+        //以下只由时间轮线程读写
+        private long rounds;
+        private Timeout prev, next;
+        private Bucket bucket;
+
+        private Timeout(_HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task has already expired or been cancelled
+         */
+        @CalledByMultiThreads
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED)) return false;
+            timer.cancelled.offer(this);
+            return true;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, INIT, EXPIRED)) return;
+            try {
+                task.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 时间轮的一格，双向链表，只由时间轮线程读写
+     */
+    private static final class Bucket {
+        private Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) head = tail = timeout;
+            else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state == Timeout.CANCELLED)
+                    remove(timeout);
+                else if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.rounds > 0)
+                    timeout.rounds--;
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) return;//已经摘除
+            Timeout next = timeout.next;
+            if (timeout.prev != null) timeout.prev.next = next;
+            if (next != null) next.prev = timeout.prev;
+            if (timeout == head) head = next;
+            if (timeout == tail) tail = timeout.prev;
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
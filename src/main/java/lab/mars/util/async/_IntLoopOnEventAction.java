@@ -0,0 +1,21 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.IntLoopOnEventAction;
+
+public class _IntLoopOnEventAction extends _IntOnEventAction {
+    private IntLoopOnEventAction loopOnEventAction = null;
+
+    public _IntLoopOnEventAction(IntLoopOnEventAction loopOnEventAction) {
+        this.loopOnEventAction = loopOnEventAction;
+    }
+
+    @Override Object userFunction() {return loopOnEventAction;}
+
+    @Override protected void onEvent(AsyncStream asyncStream, int event) {
+        asyncStream.loopTerminated = !loopOnEventAction.onEvent(event);
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return asyncStream.loopTerminated;
+    }
+}
@@ -0,0 +1,17 @@
+package lab.mars.util.async;
+
+/**
+ * 消费一个int事件的action，与{@link _OnEventAction}相对应
+ */
+public abstract class _IntOnEventAction extends _Action {
+    @Override
+    protected boolean precondition(AsyncStream asyncStream) {
+        return ((IntAsyncStream) asyncStream).hasMoreIntEvents();
+    }
+
+    protected abstract void onEvent(AsyncStream asyncStream, int event);
+
+    @Override protected void run(AsyncStream asyncStream) {
+        onEvent(asyncStream, ((IntAsyncStream) asyncStream).pollIntEvent());
+    }
+}
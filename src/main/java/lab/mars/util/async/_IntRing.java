@@ -0,0 +1,27 @@
+package lab.mars.util.async;
+
+final class _IntRing extends _PrimitiveRing {
+    private final int[] buffer;
+
+    _IntRing(int capacity) {
+        super(capacity);
+        buffer = new int[mask + 1];
+    }
+
+    @CalledByMultiThreads
+    boolean offer(int event) {
+        long index = claim();
+        if (index < 0) return false;
+        buffer[(int) (index & mask)] = event;
+        publish(index);
+        return true;
+    }
+
+    @CalledBySingleThread
+    int poll() {
+        long index = next();
+        int event = buffer[(int) (index & mask)];
+        release(index);
+        return event;
+    }
+}
@@ -0,0 +1,17 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.IntThenOnEventAction;
+
+public class _IntThenOnEventAction extends _IntOnEventAction {
+    private IntThenOnEventAction thenOnEventAction = null;
+
+    public _IntThenOnEventAction(IntThenOnEventAction thenOnEventAction) {
+        this.thenOnEventAction = thenOnEventAction;
+    }
+
+    @Override Object userFunction() {return thenOnEventAction;}
+
+    @Override protected void onEvent(AsyncStream asyncStream, int event) {
+        thenOnEventAction.onEvent(event);
+    }
+}
@@ -0,0 +1,40 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AsyncStream#interval}的定时任务：每个周期在时间轮线程中放入一个递增的Long计数（action交给executor执行），再按固定频率
+ * （以第一次的起点计算，不累积误差）安排下一次。作为stream自己的whenEnd action，stream结束时取消定时。
+ */
+public class _Interval extends _Action implements Runnable {
+    private final AsyncStream stream;
+    private final long periodNanos;
+    private long next;
+    private long count;
+    private volatile _HashedWheelTimer.Timeout timeout;
+
+    _Interval(AsyncStream stream, long period, TimeUnit unit) {
+        this.stream = stream;
+        this.periodNanos = Math.max(1, unit.toNanos(period));
+        this.next = System.nanoTime() + periodNanos;
+        this.timeout = _HashedWheelTimer.shared().schedule(this, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 到期，在时间轮线程中执行
+     */
+    @Override public void run() {
+        if (stream.isEnd()) return;
+        stream.onEventAsync(count++);//在时间轮线程中入队，保持计数的顺序
+        next += periodNanos;
+        timeout = _HashedWheelTimer.shared().schedule(this, next - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (stream.isEnd()) timeout.cancel();//与下面的取消竞争时不留下定时
+    }
+
+    /**
+     * stream结束
+     */
+    @Override protected void run(AsyncStream asyncStream) {
+        timeout.cancel();
+    }
+}
@@ -0,0 +1,240 @@
+package lab.mars.util.async;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 汇合节点：等待子AsyncStream结束后唤醒父AsyncStream。
+ * <ul>
+ * <li>{@link #all}：{@link AsyncStream#when}与{@link AsyncStream#collect}，等待所有子AsyncStream结束，
+ * collect时以Object[]回传每个子AsyncStream的结果；</li>
+ * <li>{@link #partial}：{@link AsyncStream#whenAny}、{@link AsyncStream#race}与{@link AsyncStream#quorum}，
+ * 等待其中k个结束，决定之后其余子AsyncStream中的{@link _JoinSlot}不再引用此节点，晚到的结束不会让父AsyncStream一直可达。</li>
+ * </ul>
+ * <p>每个子AsyncStream的whenEndChain中只放一个{@link _JoinSlot}（记录下标，没有lambda）。等待所有子AsyncStream且子AsyncStream较多时，
+ * 计数分散到多个条带（stripe）上：第i个子AsyncStream计入第i % stripes个条带，条带减到0时再把根计数减1，根计数减到0的线程负责唤醒。
+ * 这样在不同线程中结束的子AsyncStream大多落在不同的条带上，不会都去竞争同一个计数器。</p>
+ * <p>节点在父AsyncStream中执行两次：第一次登记到子AsyncStream并进入AWAIT，唤醒后第二次把结果压入事件队列，
+ * 或者以子AsyncStream的错误结束父AsyncStream。</p>
+ */
+public class _JoinNode extends _Action {
+    /**
+     * 子AsyncStream少于此数时不分条带，直接在根计数上减
+     */
+    static final int STRIPE_THRESHOLD = 64;
+    /**
+     * 每个条带至少负责的子AsyncStream数
+     */
+    static final int MIN_PER_STRIPE = 32;
+    static final int MAX_STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) << 1;
+    /**
+     * 条带之间间隔16个int（64 bytes），避免伪共享
+     */
+    private static final int PAD = 4;
+    private static final int NEW = 0, REGISTERED = 1, DONE = 2;
+
+    private final Collection<AsyncStream> asyncs;
+    /**
+     * 需要结束的子AsyncStream数，0表示全部
+     */
+    private final int required;
+    private final boolean collect;
+    /**
+     * partial：子AsyncStream以错误结束时也算数，若在前required个之中则以此错误结束父AsyncStream
+     */
+    private final boolean failFast;
+    /**
+     * partial且required为1时直接回传胜出者的结果而不是数组
+     */
+    private final boolean single;
+
+    /**
+     * 大于0时等待超过此时间则父AsyncStream以超时结束
+     */
+    private long timeoutNanos;
+    private volatile _Deadline deadline;
+    private AsyncStream parent;
+    private int phase = NEW;
+    private Object[] results;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private int stripes;
+    private AtomicIntegerArray stripeRemaining;
+    /**
+     * partial时每个子AsyncStream的slot，在构造时全部创建（final字段安全发布），
+     * 登记途中就做出决定时也能释放所有slot
+     */
+    private final _JoinSlot[] slots;
+    /**
+     * 做出决定后为true，之后不再把slot登记到剩下的子AsyncStream中
+     */
+    private volatile boolean decided;
+    private AtomicInteger tickets, failed;
+    /**
+     * 由做出决定的线程在wakeUp之前写入，wakeUp之后由父AsyncStream读取
+     */
+    private Object result;
+    private Throwable failure;
+
+    private _JoinNode(Collection<AsyncStream> asyncs, int required, boolean collect, boolean failFast, boolean single) {
+        this.asyncs = asyncs;
+        this.required = required;
+        this.collect = collect;
+        this.failFast = failFast;
+        this.single = single;
+        if (required == 0) slots = null;
+        else {
+            slots = new _JoinSlot[asyncs.size()];
+            for (int i = 0; i < slots.length; i++)
+                slots[i] = new _JoinSlot(this, i);
+        }
+    }
+
+    /**
+     * 等待所有子AsyncStream结束
+     */
+    static _JoinNode all(Collection<AsyncStream> asyncs, boolean collect) {
+        return new _JoinNode(asyncs, 0, collect, false, false);
+    }
+
+    /**
+     * 等待其中required个子AsyncStream结束，以完成的顺序回传结果
+     *
+     * @param single
+     *         required为1时直接回传结果而不是数组
+     */
+    static _JoinNode partial(Collection<AsyncStream> asyncs, int required, boolean failFast, boolean single) {
+        if (required <= 0 || required > asyncs.size())
+            throw new IllegalArgumentException("required must be in [1, " + asyncs.size() + "]: " + required);
+        return new _JoinNode(asyncs, required, true, failFast, single && required == 1);
+    }
+
+    _JoinNode withTimeout(long timeout, TimeUnit unit) {
+        timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    @Override protected void run(AsyncStream asyncStream) throws Exception {
+        if (phase == NEW) {
+            register(asyncStream);
+            return;
+        }
+        phase = DONE;
+        Throwable e = failure;
+        if (e instanceof Exception) throw (Exception) e;
+        if (e != null) throw new CompletionException(e);
+        if (result != null) asyncStream.addFirst(result);
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return phase == DONE;
+    }
+
+    private void register(AsyncStream asyncStream) {
+        int size = asyncs.size();
+        parent = asyncStream;
+        phase = REGISTERED;
+        if (required == 0) {
+            if (collect) results = new Object[size];
+            if (size < STRIPE_THRESHOLD) {
+                stripes = 1;
+                remaining.set(size);
+            } else {
+                stripes = Math.min(MAX_STRIPES, size / MIN_PER_STRIPE);
+                stripeRemaining = new AtomicIntegerArray(stripes << PAD);
+                for (int s = 0; s < stripes; s++)
+                    stripeRemaining.set(s << PAD, size / stripes + (s < size % stripes ? 1 : 0));
+                remaining.set(stripes);
+            }
+        } else {
+            results = new Object[required];
+            remaining.set(required);
+            tickets = new AtomicInteger();
+            failed = new AtomicInteger();
+        }
+        if (!asyncStream.enterAwait(this)) return;//已被取消
+        if (timeoutNanos > 0) {//在登记之前设置，子AsyncStream可能在登记时就已经结束并做出决定
+            deadline = new _Deadline(asyncStream, this, timeoutNanos);
+            deadline.start();
+        }
+        int i = 0;
+        for (AsyncStream async : asyncs) {
+            if (decided) break;//已经结束的子AsyncStream在登记时就做出了决定，剩下的不再需要
+            async.addEndAction(slots != null ? slots[i] : new _JoinSlot(this, i));
+            i++;
+        }
+    }
+
+    /**
+     * 等待所有子AsyncStream时，collect需要每个子AsyncStream都有一个结果事件
+     */
+    boolean needsEvent() {
+        return collect && required == 0;
+    }
+
+    /**
+     * 子AsyncStream结束时在其tick中调用
+     */
+    @CalledByMultiThreads
+    void arrive(int index, AsyncStream child) {
+        if (required == 0 && child.cancelsDependents()) {//每个子AsyncStream都是必需的，取消父AsyncStream
+            parent.cancel(AsyncStream.CANCEL_DEPENDENTS);
+            return;
+        }
+        if (required == 0) {
+            if (collect) results[index] = child.pollEvent();
+            if (stripes > 1 && stripeRemaining.decrementAndGet((index % stripes) << PAD) != 0)
+                return;
+            if (remaining.decrementAndGet() == 0)//the last one to execute
+                decide(results, null);
+            return;
+        }
+        Throwable childFailure = child.failure();
+        if (childFailure != null && !failFast) {
+            //剩下的子AsyncStream已经不够required个
+            if (failed.incrementAndGet() == asyncs.size() - required + 1)
+                decide(null, childFailure);
+            return;
+        }
+        int ticket = tickets.getAndIncrement();
+        if (ticket >= required) return;//晚到的
+        if (childFailure != null) {
+            decide(null, childFailure);
+            return;
+        }
+        results[ticket] = child.hasMoreEvents() ? child.pollEvent() : null;
+        if (remaining.decrementAndGet() == 0)//先写结果再计数，保证决定时前required个结果都已写入
+            decide(single ? results[0] : results, null);
+    }
+
+    /**
+     * 父AsyncStream向下传播取消
+     */
+    @CalledByMultiThreads
+    void cancelChildren() {
+        for (AsyncStream async : asyncs)
+            async.cancel(AsyncStream.CANCEL_AWAITED);
+    }
+
+    /**
+     * 父AsyncStream在等待中结束
+     */
+    @CalledByMultiThreads
+    void cancelDeadline() {
+        _Deadline deadline = this.deadline;
+        if (deadline != null) deadline.cancel();
+    }
+
+    private void decide(Object result, Throwable failure) {
+        this.result = result;
+        this.failure = failure;
+        decided = true;
+        if (deadline != null) deadline.cancel();
+        if (slots != null)
+            for (_JoinSlot slot : slots)
+                slot.release();
+        parent.wakeUp(null);
+    }
+}
@@ -0,0 +1,32 @@
+package lab.mars.util.async;
+
+/**
+ * 放入子AsyncStream的whenEndChain中，子AsyncStream结束时通知{@link _JoinNode}。
+ * collect时与{@link AsyncStream#whenEnd(lab.mars.util.async.action.ThenOnEventAction)}一样需要消费一个事件作为结果，
+ * 但结果会回传给父AsyncStream，所以不调用{@link Cleanable#clean()}。
+ * <p>{@link _JoinNode}做出决定后调用{@link #release()}，之后此slot只是一个空壳，不再引用节点和父AsyncStream。</p>
+ */
+public class _JoinSlot extends _Action {
+    private _JoinNode node;
+    private final int index;
+
+    _JoinSlot(_JoinNode node, int index) {
+        this.node = node;
+        this.index = index;
+    }
+
+    @Override protected boolean precondition(AsyncStream asyncStream) {
+        _JoinNode node = this.node;
+        //被取消的子AsyncStream不会再有事件，结果为null
+        return node == null || !node.needsEvent() || asyncStream.hasMoreEvents() || asyncStream.isCancelled();
+    }
+
+    @Override protected void run(AsyncStream asyncStream) {
+        _JoinNode node = this.node;
+        if (node != null) node.arrive(index, asyncStream);
+    }
+
+    void release() {
+        node = null;
+    }
+}
@@ -0,0 +1,21 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.LongLoopOnEventAction;
+
+public class _LongLoopOnEventAction extends _LongOnEventAction {
+    private LongLoopOnEventAction loopOnEventAction = null;
+
+    public _LongLoopOnEventAction(LongLoopOnEventAction loopOnEventAction) {
+        this.loopOnEventAction = loopOnEventAction;
+    }
+
+    @Override Object userFunction() {return loopOnEventAction;}
+
+    @Override protected void onEvent(AsyncStream asyncStream, long event) {
+        asyncStream.loopTerminated = !loopOnEventAction.onEvent(event);
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return asyncStream.loopTerminated;
+    }
+}
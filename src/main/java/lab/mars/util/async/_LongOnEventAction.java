@@ -0,0 +1,17 @@
+package lab.mars.util.async;
+
+/**
+ * 消费一个long事件的action，与{@link _OnEventAction}相对应
+ */
+public abstract class _LongOnEventAction extends _Action {
+    @Override
+    protected boolean precondition(AsyncStream asyncStream) {
+        return ((LongAsyncStream) asyncStream).hasMoreLongEvents();
+    }
+
+    protected abstract void onEvent(AsyncStream asyncStream, long event);
+
+    @Override protected void run(AsyncStream asyncStream) {
+        onEvent(asyncStream, ((LongAsyncStream) asyncStream).pollLongEvent());
+    }
+}
@@ -0,0 +1,27 @@
+package lab.mars.util.async;
+
+final class _LongRing extends _PrimitiveRing {
+    private final long[] buffer;
+
+    _LongRing(int capacity) {
+        super(capacity);
+        buffer = new long[mask + 1];
+    }
+
+    @CalledByMultiThreads
+    boolean offer(long event) {
+        long index = claim();
+        if (index < 0) return false;
+        buffer[(int) (index & mask)] = event;
+        publish(index);
+        return true;
+    }
+
+    @CalledBySingleThread
+    long poll() {
+        long index = next();
+        long event = buffer[(int) (index & mask)];
+        release(index);
+        return event;
+    }
+}
@@ -0,0 +1,17 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.LongThenOnEventAction;
+
+public class _LongThenOnEventAction extends _LongOnEventAction {
+    private LongThenOnEventAction thenOnEventAction = null;
+
+    public _LongThenOnEventAction(LongThenOnEventAction thenOnEventAction) {
+        this.thenOnEventAction = thenOnEventAction;
+    }
+
+    @Override Object userFunction() {return thenOnEventAction;}
+
+    @Override protected void onEvent(AsyncStream asyncStream, long event) {
+        thenOnEventAction.onEvent(event);
+    }
+}
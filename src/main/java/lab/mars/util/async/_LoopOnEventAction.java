@@ -8,17 +8,18 @@ import lab.mars.util.async.action.LoopOnEventAction;
  */
 public class _LoopOnEventAction extends _OnEventAction {
     private LoopOnEventAction loopOnEventAction = null;
-    private boolean terminate = true;
 
     public _LoopOnEventAction(LoopOnEventAction loopOnEventAction) {
         this.loopOnEventAction = loopOnEventAction;
     }
 
+    @Override Object userFunction() {return loopOnEventAction;}
+
     @Override protected void onEvent(AsyncStream asyncStream,Object event) {
-        terminate = !loopOnEventAction.onEvent(event);
+        asyncStream.loopTerminated = !loopOnEventAction.onEvent(event);
     }
 
     @Override protected boolean postcondition(AsyncStream asyncStream) {
-        return terminate;
+        return asyncStream.loopTerminated;
     }
 }
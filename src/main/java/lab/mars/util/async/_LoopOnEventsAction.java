@@ -0,0 +1,24 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.LoopOnEventsAction;
+
+import java.util.List;
+
+public class _LoopOnEventsAction extends _OnEventsAction {
+    private final LoopOnEventsAction loopOnEventsAction;
+
+    public _LoopOnEventsAction(int maxEvents, LoopOnEventsAction loopOnEventsAction) {
+        super(maxEvents);
+        this.loopOnEventsAction = loopOnEventsAction;
+    }
+
+    @Override Object userFunction() {return loopOnEventsAction;}
+
+    @Override protected void onEvents(AsyncStream asyncStream, List<Object> events) {
+        asyncStream.loopTerminated = !loopOnEventsAction.onEvents(events);
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return asyncStream.loopTerminated;
+    }
+}
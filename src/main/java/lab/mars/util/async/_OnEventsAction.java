@@ -0,0 +1,41 @@
+package lab.mars.util.async;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次run取出至多maxEvents个当前已有的事件，放入复用的列表中一次性交给onEvents，分摊每个事件上action的调度开销
+ * 以及下游每次调用的开销（如一次提交写入一批数据）。列表在每个action中只有一个，只能在onEvents调用期间使用，
+ * 所以此类action不放入{@link AsyncPipeline}中共享。
+ */
+public abstract class _OnEventsAction extends _Action {
+    private final int maxEvents;
+    private final List<Object> batch;
+
+    protected _OnEventsAction(int maxEvents) {
+        if (maxEvents <= 0) throw new IllegalArgumentException("maxEvents must be positive: " + maxEvents);
+        this.maxEvents = maxEvents;
+        this.batch = new ArrayList<>(Math.min(maxEvents, 64));
+    }
+
+    @Override
+    protected boolean precondition(AsyncStream asyncStream) {
+        return asyncStream.hasMoreEvents();
+    }
+
+    protected abstract void onEvents(AsyncStream asyncStream, List<Object> events);
+
+    @Override protected void run(AsyncStream asyncStream) {
+        for (int i = 0; i < maxEvents && asyncStream.hasMoreEvents(); i++)
+            batch.add(asyncStream.pollEvent());
+        try {
+            onEvents(asyncStream, batch);
+        } finally {
+            //有些event可能需要clean，同时不再引用这些事件
+            for (Object event : batch)
+                if (event instanceof Cleanable)
+                    ((Cleanable) event).clean();
+            batch.clear();
+        }
+    }
+}
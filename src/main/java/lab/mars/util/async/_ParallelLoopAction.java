@@ -0,0 +1,126 @@
+package lab.mars.util.async;
+
+import lab.mars.special_queue.SpecialQueue;
+import lab.mars.util.async.action.LoopOnEventAction;
+import lab.mars.util.async.action.ThenOnEventFunction;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link AsyncStream#parallelLoop}：持有tick_mutex的线程把事件分发给executor中至多parallelism个worker并发执行handler，
+ * worker完成后保存结果并tick，由持有tick_mutex的线程把结果依次交给consumer。
+ * <ul>
+ * <li>ordered：第n个分发的事件的结果放在slots[n % parallelism]中（同时在执行的事件不超过parallelism个，所以不会冲突），
+ * 按分发的顺序交付，前面的事件没有完成时后面已经完成的结果等待；</li>
+ * <li>unordered：结果放入无锁队列，按完成的顺序交付。</li>
+ * </ul>
+ * handler抛出的异常在交付到它时重新抛出，使stream以此异常结束。consumer返回false后不再分发，
+ * 之后完成的结果被丢弃（{@link Cleanable}结果被clean）。此action保存执行状态，只能属于一个AsyncStream。
+ */
+public class _ParallelLoopAction extends _Action {
+    private static final Object NULL = new Object();
+
+    private final Executor executor;
+    private final int parallelism;
+    private final ThenOnEventFunction handler;
+    private final LoopOnEventAction consumer;
+    private final AtomicReferenceArray<Object> slots;
+    private final SpecialQueue<Object> completed;
+    //以下只由持有tick_mutex的线程读写
+    private long dispatched, delivered;
+    private volatile boolean terminated;
+
+    _ParallelLoopAction(Executor executor, int parallelism, boolean ordered,
+                        ThenOnEventFunction handler, LoopOnEventAction consumer) {
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.handler = handler;
+        this.consumer = consumer;
+        this.slots = ordered ? new AtomicReferenceArray<>(parallelism) : null;
+        this.completed = ordered ? null : new SpecialQueue<>();
+    }
+
+    @Override Object userFunction() {return handler;}
+
+    @Override protected boolean precondition(AsyncStream asyncStream) {
+        return hasResult() || dispatched - delivered < parallelism && asyncStream.hasMoreEvents();
+    }
+
+    private boolean hasResult() {
+        return slots != null ? slots.get(slot(delivered)) != null : completed.notEmpty();
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % parallelism);
+    }
+
+    @Override protected void run(AsyncStream asyncStream) throws Exception {
+        Object result;
+        while ((result = takeResult()) != null) {
+            delivered++;
+            if (result instanceof Failure) throw ((Failure) result).exception;
+            if (!consumer.onEvent(result == NULL ? null : result)) {
+                terminated = true;
+                return;
+            }
+        }
+        while (dispatched - delivered < parallelism && asyncStream.hasMoreEvents())
+            dispatch(asyncStream, asyncStream.pollEvent(), dispatched++);
+    }
+
+    private Object takeResult() {
+        if (slots == null) return completed.poll();
+        int slot = slot(delivered);
+        Object result = slots.get(slot);
+        if (result != null) slots.set(slot, null);
+        return result;
+    }
+
+    private void dispatch(AsyncStream asyncStream, Object event, long sequence) {
+        Runnable task = () -> complete(asyncStream, sequence, handle(event));
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();//executor已关闭或饱和，只能在当前线程中执行
+        }
+    }
+
+    @CalledByMultiThreads
+    private Object handle(Object event) {
+        Object result;
+        try {
+            result = handler.onEvent(event);
+        } catch (Exception e) {
+            return new Failure(e);
+        }
+        if (event instanceof Cleanable && event != result)
+            ((Cleanable) event).clean();
+        return result == null ? NULL : result;
+    }
+
+    @CalledByMultiThreads
+    private void complete(AsyncStream asyncStream, long sequence, Object result) {
+        if (terminated) {
+            if (result instanceof Cleanable) ((Cleanable) result).clean();
+            return;
+        }
+        if (slots != null) slots.set(slot(sequence), result);
+        else completed.offer(result);
+        asyncStream.tick();
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return terminated;
+    }
+
+    private static final class Failure {
+        final Exception exception;
+
+        Failure(Exception exception) {
+            this.exception = exception;
+        }
+    }
+}
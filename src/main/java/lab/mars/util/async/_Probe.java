@@ -0,0 +1,22 @@
+package lab.mars.util.async;
+
+/**
+ * 安装的{@link AsyncStreamProbe}。调用点统一写成<code>if (_Probe.ENABLED) _Probe.PROBE.xxx(...)</code>，
+ * ENABLED是static final，未安装时整个分支被JIT消除。
+ */
+public class _Probe {
+    static final AsyncStreamProbe PROBE = load(System.getProperty("lab.mars.util.async.probe"));
+    static final boolean ENABLED = PROBE != null;
+
+    private static AsyncStreamProbe load(String name) {
+        if (name == null || name.isEmpty()) return null;
+        if (name.equals("metrics")) return AsyncStreamMetrics.global();
+        if (name.equals("jfr")) name = "lab.mars.util.async.AsyncStreamJfrProbe";
+        try {
+            return (AsyncStreamProbe) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {//LinkageError：低版本JVM上加载高版本的类
+            e.printStackTrace();//探针不可用时不影响AsyncStream本身
+            return null;
+        }
+    }
+}
@@ -13,6 +13,8 @@ public class _ThenAction extends _Action {
         this.thenAction = thenAction;
     }
 
+    @Override Object userFunction() {return thenAction;}
+
     @Override protected void run(AsyncStream asyncStream) {
         thenAction.run();
     }
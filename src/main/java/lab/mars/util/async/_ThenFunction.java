@@ -2,8 +2,6 @@ package lab.mars.util.async;
 
 import lab.mars.util.async.action.ThenFunction;
 
-import static lab.mars.util.async.AsyncStreamAtomicRef.AWAIT;
-
 /**
  * Created by wumo on 2016/5/31.
  * email: wumo@outlook.com
@@ -15,14 +13,13 @@ public class _ThenFunction extends _Action {
         this.thenFunction = thenFunction;
     }
 
+    @Override Object userFunction() {return thenFunction;}
+
     @Override protected void run(AsyncStream asyncStream) {
         Object result = thenFunction.run();
-        if (result instanceof AsyncStream) {
-//            asyncStream.set_status(AWAIT);
-            asyncStream.lazySet_status(AWAIT);//下面的whenEnd包含volatile write，所以此处可以使用lazySet
-            AsyncStream anotherAsync = (AsyncStream) result;
-            anotherAsync.whenEnd(() -> asyncStream.wakeUp(anotherAsync.pollRawEvent()));
-        } else
+        if (result instanceof AsyncStream)
+            asyncStream.awaitOn((AsyncStream) result);
+        else
             asyncStream.addFirst(result);
     }
 }
@@ -13,6 +13,8 @@ public class _ThenOnEventAction extends _OnEventAction {
         this.thenOnEventAction = thenOnEventAction;
     }
 
+    @Override Object userFunction() {return thenOnEventAction;}
+
     @Override protected void onEvent(AsyncStream asyncStream,Object event) {
         thenOnEventAction.onEvent(event);
     }
@@ -0,0 +1,20 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.ThenOnEventsAction;
+
+import java.util.List;
+
+public class _ThenOnEventsAction extends _OnEventsAction {
+    private final ThenOnEventsAction thenOnEventsAction;
+
+    public _ThenOnEventsAction(int maxEvents, ThenOnEventsAction thenOnEventsAction) {
+        super(maxEvents);
+        this.thenOnEventsAction = thenOnEventsAction;
+    }
+
+    @Override Object userFunction() {return thenOnEventsAction;}
+
+    @Override protected void onEvents(AsyncStream asyncStream, List<Object> events) {
+        thenOnEventsAction.onEvents(events);
+    }
+}
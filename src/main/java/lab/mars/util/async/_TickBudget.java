@@ -0,0 +1,39 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 一次drain的预算：执行了actions个action或者经过了nanos之后，如果还有工作，drain连同tick_mutex一起交给executor，
+ * 抢到tick_mutex的线程（通常是调用onEvent的生产者）不会因为其他线程不断提交事件而一直drain下去。
+ * <p>不可变，多个AsyncStream共享同一个实例。默认实例由系统属性<code>lab.mars.util.async.tickBudget</code>（action数）与
+ * <code>lab.mars.util.async.tickBudgetNanos</code>指定，都不大于0时为null，即不限制。</p>
+ */
+public class _TickBudget {
+    static final _TickBudget DEFAULT = of(Integer.getInteger("lab.mars.util.async.tickBudget", 0),
+                                          Long.getLong("lab.mars.util.async.tickBudgetNanos", 0L), null);
+
+    /**
+     * 不大于0表示不限制
+     */
+    final int actions;
+    final long nanos;
+    /**
+     * 没有绑定executor的AsyncStream用完预算后交给此executor
+     */
+    final Executor executor;
+
+    private _TickBudget(int actions, long nanos, Executor executor) {
+        this.actions = actions;
+        this.nanos = nanos;
+        this.executor = executor != null ? executor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * @return 都不限制时为null
+     */
+    static _TickBudget of(int actions, long nanos, Executor executor) {
+        if (actions <= 0 && nanos <= 0) return null;
+        return new _TickBudget(actions, nanos, executor);
+    }
+}
@@ -0,0 +1,35 @@
+package lab.mars.util.async;
+
+import java.util.ArrayDeque;
+
+/**
+ * 每个线程一个的工作列表。线程在trampolined的AsyncStream的drain中时（{@link #active}），
+ * action里触发的其他AsyncStream的tick不再递归drain，而是连同已经占到的tick_mutex一起放入列表，
+ * 由最外层的tick依次drain，所以无论链条多深，栈的深度都不变。
+ */
+public class _Trampoline {
+    private static final ThreadLocal<_Trampoline> CURRENT = new ThreadLocal<_Trampoline>() {
+        @Override protected _Trampoline initialValue() {
+            return new _Trampoline();
+        }
+    };
+
+    boolean active;
+    private final ArrayDeque<AsyncStream> deferred = new ArrayDeque<>();
+
+    static _Trampoline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param asyncStream
+     *         已经持有tick_mutex
+     */
+    void defer(AsyncStream asyncStream) {
+        deferred.offer(asyncStream);
+    }
+
+    AsyncStream poll() {
+        return deferred.poll();
+    }
+}
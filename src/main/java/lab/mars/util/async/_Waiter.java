@@ -0,0 +1,74 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link AsyncStream#join}等阻塞方法放入whenEndChain的action：AsyncStream结束后在tick中记录结果（不消费事件）并唤醒等待线程。
+ * 与在whenEnd中countDown一个CountDownLatch相比，每次等待只分配这一个对象。
+ * <p>超时或者被中断后等待者被放弃，不再引用等待线程，AsyncStream结束时也不再记录结果，留在whenEndChain中的只是一个空对象。</p>
+ */
+public class _Waiter extends _Action {
+    /**
+     * 被放弃后为null
+     */
+    private volatile Thread thread;
+    private volatile boolean done;
+    private Object result;
+    private Throwable failure;
+
+    _Waiter(Thread thread) {
+        this.thread = thread;
+    }
+
+    @Override protected void run(AsyncStream asyncStream) {
+        Thread thread = this.thread;
+        if (thread == null) return;//已被放弃
+        result = asyncStream.peekEvent();
+        failure = asyncStream.failure();
+        done = true;//volatile write，使result和failure对等待线程可见
+        LockSupport.unpark(thread);
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    Object result() {
+        return result;
+    }
+
+    Throwable failure() {
+        return failure;
+    }
+
+    /**
+     * @param timeoutNanos
+     *         {@link Long#MAX_VALUE}表示不限时
+     * @return false if timeout
+     * @throws InterruptedException
+     *         only when interruptible is true
+     */
+    boolean await(WaitStrategy strategy, long timeoutNanos, boolean interruptible) throws InterruptedException {
+        boolean abandon = true;
+        long deadline = timeoutNanos == Long.MAX_VALUE ? 0 : System.nanoTime() + timeoutNanos;
+        long remaining = timeoutNanos;
+        boolean interrupted = false;
+        int spins = 0;
+        try {
+            while (!done) {
+                if (timeoutNanos != Long.MAX_VALUE && (remaining = deadline - System.nanoTime()) <= 0)
+                    return false;
+                spins = strategy.idle(spins, remaining);
+                if (Thread.interrupted()) {
+                    if (interruptible) throw new InterruptedException();
+                    interrupted = true;
+                }
+            }
+            abandon = false;
+            return true;
+        } finally {
+            if (abandon) thread = null;
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package lab.mars.util.async;
+
+/**
+ * 放入被等待的AsyncStream的whenEndChain中，它结束时把它剩下的第一个事件回传给等待者并唤醒等待者
+ * （{@link AsyncStream#await}以及then回传AsyncStream的情况）。
+ * 被等待的AsyncStream是以{@link AsyncStream#cancel(boolean)}向上传播的方式取消的，则同样取消等待者；
+ * 不向上传播的取消（例如作为共享的子AsyncStream被向下传播取消）则让等待者以{@link java.util.concurrent.CancellationException}结束，
+ * 而不是以没有回传事件的方式被唤醒。
+ */
+public class _WakeUpAction extends _Action {
+    private final AsyncStream dependent;
+
+    _WakeUpAction(AsyncStream dependent) {
+        this.dependent = dependent;
+    }
+
+    @Override protected void run(AsyncStream awaited) {
+        if (awaited.cancelsDependents())
+            dependent.cancel(AsyncStream.CANCEL_DEPENDENTS);
+        else if (awaited.isCancelled())
+            dependent.awaitedCancelled();
+        else
+            dependent.wakeUp(awaited.pollRawEvent());
+    }
+}
@@ -0,0 +1,5 @@
+package lab.mars.util.async.action;
+
+public interface AccumulateFunction<A, T> {
+    A apply(A accumulated, T event);
+}
@@ -0,0 +1,8 @@
+package lab.mars.util.async.action;
+
+public interface FilterOnEventFunction<T> {
+    /**
+     * @return true to keep the event, false to drop it
+     */
+    boolean test(T event);
+}
@@ -0,0 +1,11 @@
+package lab.mars.util.async.action;
+
+/**
+ * {@link LoopOnEventAction} specialized for int events, see {@link lab.mars.util.async.IntAsyncStream}
+ */
+public interface IntLoopOnEventAction {
+    /**
+     * @return true if continue to loop, otherwise false
+     */
+    boolean onEvent(int event);
+}
@@ -0,0 +1,8 @@
+package lab.mars.util.async.action;
+
+/**
+ * {@link ThenOnEventAction} specialized for int events, see {@link lab.mars.util.async.IntAsyncStream}
+ */
+public interface IntThenOnEventAction {
+    void onEvent(int event);
+}
@@ -0,0 +1,11 @@
+package lab.mars.util.async.action;
+
+/**
+ * {@link LoopOnEventAction} specialized for long events, see {@link lab.mars.util.async.LongAsyncStream}
+ */
+public interface LongLoopOnEventAction {
+    /**
+     * @return true if continue to loop, otherwise false
+     */
+    boolean onEvent(long event);
+}
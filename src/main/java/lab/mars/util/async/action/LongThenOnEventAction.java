@@ -0,0 +1,8 @@
+package lab.mars.util.async.action;
+
+/**
+ * {@link ThenOnEventAction} specialized for long events, see {@link lab.mars.util.async.LongAsyncStream}
+ */
+public interface LongThenOnEventAction {
+    void onEvent(long event);
+}
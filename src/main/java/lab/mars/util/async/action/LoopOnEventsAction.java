@@ -0,0 +1,12 @@
+package lab.mars.util.async.action;
+
+import java.util.List;
+
+public interface LoopOnEventsAction<T> {
+    /**
+     * @param events
+     *         at least one event, the list is reused and only valid during this call
+     * @return true if continue to loop, otherwise false
+     */
+    boolean onEvents(List<T> events);
+}
@@ -0,0 +1,11 @@
+package lab.mars.util.async.action;
+
+import java.util.List;
+
+public interface ThenOnEventsAction<T> {
+    /**
+     * @param events
+     *         at least one event, the list is reused and only valid during this call
+     */
+    void onEvents(List<T> events);
+}
@@ -0,0 +1,125 @@
+package lab.mars.util.async;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * 发出JDK Flight Recorder事件的{@link AsyncStreamProbe}（需要Java 11+），用<code>-Dlab.mars.util.async.probe=jfr</code>安装：
+ * <ul>
+ * <li>{@link DrainEvent}：每次drain一个，记录线程、执行的action数和持续时间；</li>
+ * <li>{@link AwaitEvent}：每段AWAIT一个，从进入AWAIT到被唤醒（或者被取消、超时），提交于唤醒的线程；</li>
+ * <li>{@link ActionEvent}：执行时间超过阈值的action（action字段是用户函数的类，库内部的action为空），阈值默认10 ms，与其他JFR事件一样在录制设置中修改，
+ * 例如<code>lab.mars.util.async.Action#threshold=1 ms</code>。</li>
+ * </ul>
+ * 事件中的stream字段是AsyncStream的identityHashCode，用来把同一个AsyncStream的事件串起来。
+ * 录制没有开启相应事件时，除了判断是否开启之外不做任何事情。
+ */
+public class AsyncStreamJfrProbe implements AsyncStreamProbe {
+    /**
+     * 当前线程中正在进行的最内层的drain，action计数记在它上面
+     */
+    private static final ThreadLocal<DrainEvent> CURRENT = new ThreadLocal<>();
+
+    @Name("lab.mars.util.async.Drain")
+    @Label("AsyncStream Drain")
+    @Category("AsyncStream")
+    @Description("One tick drain of an AsyncStream by the thread holding its tick mutex")
+    @StackTrace(false)
+    static class DrainEvent extends Event {
+        @Label("Stream")
+        int stream;
+        @Label("Actions Run")
+        int actions;
+        transient DrainEvent outer;
+    }
+
+    @Name("lab.mars.util.async.Await")
+    @Label("AsyncStream Await")
+    @Category("AsyncStream")
+    @Description("An AWAIT period, from await/then/when/collect/delay until the stream is woken up, cancelled or timed out")
+    @StackTrace(false)
+    static class AwaitEvent extends Event {
+        @Label("Stream")
+        int stream;
+        @Label("Target")
+        @Description("stream, join or delay")
+        String target;
+        @Label("Target Stream")
+        int targetStream;
+    }
+
+    @Name("lab.mars.util.async.Action")
+    @Label("AsyncStream Slow Action")
+    @Category("AsyncStream")
+    @Description("An action whose execution took longer than the threshold")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class ActionEvent extends Event {
+        @Label("Stream")
+        int stream;
+        @Label("Action")
+        Class<?> action;
+    }
+
+    @Override public Object drainStarted(AsyncStream asyncStream) {
+        DrainEvent event = new DrainEvent();
+        if (!event.isEnabled()) return null;
+        event.stream = System.identityHashCode(asyncStream);
+        event.outer = CURRENT.get();
+        CURRENT.set(event);
+        event.begin();
+        return event;
+    }
+
+    @Override public void drainFinished(AsyncStream asyncStream, Object token) {
+        if (token == null) return;
+        DrainEvent event = (DrainEvent) token;
+        event.end();
+        CURRENT.set(event.outer);
+        event.outer = null;
+        if (event.shouldCommit()) event.commit();
+    }
+
+    @Override public Object actionStarted(AsyncStream asyncStream, Object action) {
+        DrainEvent drain = CURRENT.get();
+        if (drain != null) drain.actions++;
+        ActionEvent event = new ActionEvent();
+        if (!event.isEnabled()) return null;
+        event.stream = System.identityHashCode(asyncStream);
+        event.action = action == null ? null : action.getClass();
+        event.begin();
+        return event;
+    }
+
+    @Override public void actionExecuted(AsyncStream asyncStream, Object token) {
+        if (token == null) return;
+        ActionEvent event = (ActionEvent) token;
+        event.end();
+        if (event.shouldCommit()) event.commit();
+    }
+
+    @Override public Object awaitStarted(AsyncStream asyncStream, Object target) {
+        AwaitEvent event = new AwaitEvent();
+        if (!event.isEnabled()) return null;
+        event.stream = System.identityHashCode(asyncStream);
+        if (target instanceof AsyncStream) {
+            event.target = "stream";
+            event.targetStream = System.identityHashCode(target);
+        } else
+            event.target = target instanceof _DelayAction ? "delay" : "join";
+        event.begin();
+        return event;
+    }
+
+    @Override public void awaitFinished(AsyncStream asyncStream, Object token) {
+        if (token == null) return;
+        AwaitEvent event = (AwaitEvent) token;
+        event.end();
+        if (event.shouldCommit()) event.commit();
+    }
+}
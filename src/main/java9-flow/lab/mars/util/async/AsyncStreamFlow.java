@@ -0,0 +1,44 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.LoopOnEventAction;
+
+import java.util.concurrent.Flow;
+
+/**
+ * AsyncStream与{@link Flow}之间的适配器（需要Java 9+），两个方向都由下游的request(n)驱动：
+ * <ul>
+ * <li>{@link #publisher(AsyncStream)}：AsyncStream中的事件只在订阅者有剩余的request额度时才被取出交给onNext，
+ * 其余事件留在events队列中。源AsyncStream用{@link AsyncStream#boundedAsync}创建时，生产者会被队列容量
+ * （及{@link AsyncStream#whenSpace()}）反压，从而端到端地限速而不是无限缓存；</li>
+ * <li>{@link #subscriber(AsyncStream, int, LoopOnEventAction)}：上游的元素作为事件提交给AsyncStream，由loop消费，
+ * 每消费一批才向上游request同样的数量，所以AsyncStream中最多缓存prefetch个事件。</li>
+ * </ul>
+ */
+public final class AsyncStreamFlow {
+    private AsyncStreamFlow() {}
+
+    /**
+     * 把source的事件发布给（唯一的）订阅者。订阅时在source的action链末尾加入一个受request额度控制的loop，
+     * source调用{@link AsyncStream#end()}且剩余的事件都交付之后调用onComplete；source因错误结束则调用onError。
+     * 重复订阅或者source的chain已经关闭时，订阅者收到onError(IllegalStateException)。
+     */
+    public static <T> Flow.Publisher<T> publisher(AsyncStream source) {
+        return new _FlowPublisher<>(source);
+    }
+
+    /**
+     * @param target
+     *         接收上游元素的AsyncStream，在其action链末尾加入消费元素的loop
+     * @param prefetch
+     *         AsyncStream中最多缓存的元素数，也是初始的request数量
+     * @param consumer
+     *         返回false时结束loop并取消上游订阅；上游onComplete时loop正常结束，onError时target以此错误结束
+     */
+    public static <T> Flow.Subscriber<T> subscriber(AsyncStream target, int prefetch, LoopOnEventAction<T> consumer) {
+        if (prefetch <= 0) throw new IllegalArgumentException("prefetch must be positive: " + prefetch);
+        if (consumer == null) throw new NullPointerException("consumer");
+        _FlowSubscriber<T> subscriber = new _FlowSubscriber<>(target, prefetch, consumer);
+        target.dynamicAddAction(subscriber);
+        return subscriber;
+    }
+}
@@ -0,0 +1,42 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link AsyncStreamFlow#publisher(AsyncStream)}，AsyncStream的事件只能被消费一次，所以只接受一个订阅者。
+ */
+public class _FlowPublisher<T> implements Flow.Publisher<T> {
+    private final AsyncStream source;
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    _FlowPublisher(AsyncStream source) {
+        if (source == null) throw new NullPointerException("source");
+        this.source = source;
+    }
+
+    @Override public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) throw new NullPointerException("subscriber");
+        _FlowSubscription subscription = new _FlowSubscription(source, subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            reject(subscriber, "AsyncStream publisher supports only one subscriber");
+            return;
+        }
+        if (source.chainClosed()) {
+            reject(subscriber, "AsyncStream chain is already closed");
+            return;
+        }
+        subscriber.onSubscribe(subscription);
+        source.addEndAction(subscription);
+        source.dynamicAddAction(subscription);
+    }
+
+    private static void reject(Flow.Subscriber<?> subscriber, String message) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override public void request(long n) {}
+
+            @Override public void cancel() {}
+        });
+        subscriber.onError(new IllegalStateException(message));
+    }
+}
@@ -0,0 +1,106 @@
+package lab.mars.util.async;
+
+import lab.mars.util.async.action.LoopOnEventAction;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link AsyncStreamFlow#subscriber}，同时也是加在目标AsyncStream中的loop：
+ * 上游的元素作为事件提交给目标AsyncStream，loop每消费limit个事件再向上游request limit个，
+ * 所以目标AsyncStream中的事件不会超过prefetch个。
+ * <p>目标是有界AsyncStream时prefetch不超过它的容量。队列仍可能被其他生产者占满：REJECT时被拒绝的元素仍归这里所有，
+ * 暂存在pending中，loop腾出空位后按顺序放回目标AsyncStream；其他策略丢弃了元素时向上游补request 1个。
+ * 只有目标AsyncStream已经结束时才取消上游。</p>
+ */
+public class _FlowSubscriber<T> extends _Action implements Flow.Subscriber<T> {
+    private final AsyncStream target;
+    private final int prefetch, limit;
+    private final LoopOnEventAction<T> consumer;
+    private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+    /**
+     * 被REJECT的有界目标拒绝的元素，onNext中放入，目标的tick中取出
+     */
+    private final ConcurrentLinkedQueue<T> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean done;
+    private volatile Throwable error;
+    /**
+     * 以下只在目标AsyncStream的tick中读写
+     */
+    private int consumed;
+    private boolean stopped;
+
+    _FlowSubscriber(AsyncStream target, int prefetch, LoopOnEventAction<T> consumer) {
+        this.target = target;
+        this.prefetch = Math.min(prefetch, target.eventCapacity());
+        this.limit = Math.max(1, this.prefetch >> 1);
+        this.consumer = consumer;
+    }
+
+    @Override public void onSubscribe(Flow.Subscription subscription) {
+        if (subscription == null) throw new NullPointerException("subscription");
+        if (!upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();//只接受一个上游
+            return;
+        }
+        subscription.request(prefetch);
+    }
+
+    @Override public void onNext(T item) {
+        if (item == null) throw new NullPointerException("item");
+        if (pending.isEmpty() && target.onEvent(item)) return;
+        if (target.isEnd())
+            upstream.get().cancel();
+        else if (target.rejectsWhenFull() || !pending.isEmpty()) {//保持顺序，之后的元素也先暂存
+            pending.offer(item);
+            target.tick();//可能loop刚刚放回了所有暂存的元素
+        } else
+            upstream.get().request(1);//被丢弃，不会被loop消费，补回额度
+    }
+
+    @Override public void onError(Throwable throwable) {
+        if (throwable == null) throw new NullPointerException("throwable");
+        error = throwable;
+        done = true;
+        target.onEvent();
+    }
+
+    @Override public void onComplete() {
+        done = true;
+        target.onEvent();
+    }
+
+    @Override protected boolean precondition(AsyncStream asyncStream) {
+        return asyncStream.hasMoreEvents() || !pending.isEmpty() || done;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override protected void run(AsyncStream asyncStream) throws Exception {
+        for (T item; (item = pending.peek()) != null && asyncStream.onEvent(item); )
+            pending.poll();
+        if (asyncStream.hasMoreEvents()) {
+            Object event = asyncStream.pollEvent();
+            boolean more = consumer.onEvent((T) event);
+            if (event instanceof Cleanable)
+                ((Cleanable) event).clean();
+            if (!more) {
+                stopped = true;
+                upstream.get().cancel();
+            } else if (++consumed == limit) {
+                consumed = 0;
+                upstream.get().request(limit);
+            }
+            return;
+        }
+        stopped = true;
+        Throwable e = error;
+        if (e instanceof Exception) throw (Exception) e;//由AsyncStream的错误处理结束目标AsyncStream
+        if (e != null) throw new CompletionException(e);
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return stopped;
+    }
+}
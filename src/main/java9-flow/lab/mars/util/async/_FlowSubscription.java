@@ -0,0 +1,92 @@
+package lab.mars.util.async;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link _FlowPublisher}的订阅，同时也是加在源AsyncStream中的loop：只有request额度大于0时才消费事件，
+ * 所以没有额度时事件留在源AsyncStream的队列中。onNext/onComplete/onError都在tick中调用，天然是串行的。
+ * <p>request和cancel可以在任意线程中调用，它们只修改额度或标记，再通过tick唤醒loop。</p>
+ * <p>同一个对象也放在源AsyncStream的whenEnd链中。end()之后、END执行之前源AsyncStream仍接受事件，
+ * 所以loop在链已关闭且没有事件时只是退出，让END执行；到FINISH之后不会再有新的事件，
+ * 由whenEnd链中的它按额度交付剩下的事件，然后才发出onComplete（源AsyncStream出错或被取消则直接onError）。</p>
+ */
+public class _FlowSubscription extends _Action implements Flow.Subscription {
+    private final AsyncStream source;
+    private final Flow.Subscriber<Object> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private volatile boolean cancelled;
+    private volatile Throwable badRequest;
+    /**
+     * 已经向订阅者发出终止信号（或已取消），只在tick中读写
+     */
+    private boolean terminated;
+    /**
+     * loop已经退出，剩下的事件交给whenEnd链中的自己，只在tick中读写
+     */
+    private boolean left;
+
+    @SuppressWarnings("unchecked")
+    _FlowSubscription(AsyncStream source, Flow.Subscriber<?> subscriber) {
+        this.source = source;
+        this.subscriber = (Flow.Subscriber<Object>) subscriber;
+    }
+
+    @CalledByMultiThreads
+    @Override public void request(long n) {
+        if (n <= 0) {
+            badRequest = new IllegalArgumentException("non-positive request: " + n);
+            cancelled = true;
+        } else
+            while (true) {
+                long current = demand.get();
+                if (current == Long.MAX_VALUE) break;
+                long next = current + n;
+                if (next < 0) next = Long.MAX_VALUE;//溢出视为无限
+                if (demand.compareAndSet(current, next)) break;
+            }
+        source.tick();
+    }
+
+    @CalledByMultiThreads
+    @Override public void cancel() {
+        cancelled = true;
+        source.tick();
+    }
+
+    @Override protected boolean precondition(AsyncStream asyncStream) {
+        if (cancelled || terminated) return true;
+        boolean ended = asyncStream.isEnd();
+        if (ended && asyncStream.failure() != null) return true;
+        if (asyncStream.hasMoreEvents()) return demand.get() > 0;
+        return ended || asyncStream.chainClosed();
+    }
+
+    @Override protected void run(AsyncStream asyncStream) {
+        if (terminated) return;
+        boolean ended = asyncStream.isEnd();
+        if (cancelled) {
+            terminated = true;
+            Throwable error = badRequest;
+            if (error != null) subscriber.onError(error);
+        } else if (ended && asyncStream.failure() != null) {//出错或者被取消
+            terminated = true;
+            subscriber.onError(asyncStream.failure());
+        } else if (asyncStream.hasMoreEvents()) {
+            Object event = asyncStream.pollEvent();
+            if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet();
+            subscriber.onNext(event);
+            if (event instanceof Cleanable)
+                ((Cleanable) event).clean();
+        } else if (!ended)
+            left = true;//链已关闭，让END执行，到FINISH之后再在whenEnd链中发出onComplete
+        else {
+            terminated = true;
+            subscriber.onComplete();
+        }
+    }
+
+    @Override protected boolean postcondition(AsyncStream asyncStream) {
+        return terminated || left && !asyncStream.isEnd();
+    }
+}
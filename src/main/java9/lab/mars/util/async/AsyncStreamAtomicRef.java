@@ -0,0 +1,128 @@
+package lab.mars.util.async;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Java 9及以上的实现，放在multi-release jar的META-INF/versions/9中，方法与Java 8的Unsafe实现完全一致。
+ * <ul>
+ * <li>lazySet对应{@link VarHandle#setRelease}，与putOrderedInt的语义相同；</li>
+ * <li>CAS之前的快速检查只需要{@link VarHandle#getAcquire}，失败时不会有后续的写，成功时由CAS本身保证顺序；</li>
+ * <li>CAS仍使用强的{@link VarHandle#compareAndSet}：tick_mutex和chainClosed上的伪失败会被当成竞争失败，
+ * 导致丢失一次tick或者一次end，所以不能换成weakCompareAndSet系列。</li>
+ * </ul>
+ */
+public class AsyncStreamAtomicRef {
+    private static final VarHandle STATUS, CHAIN_CLOSED, TICK_MUTEX;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STATUS = lookup.findVarHandle(AsyncStreamAtomicRef.class, "status", int.class);
+            CHAIN_CLOSED = lookup.findVarHandle(AsyncStreamAtomicRef.class, "chainClosed", int.class);
+            TICK_MUTEX = lookup.findVarHandle(AsyncStreamAtomicRef.class, "tick_mutex", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    protected static final int INSTANT = 0;
+    protected static final int DEFERRED = 1;
+    protected static final int AWAIT = 2;
+    protected static final int FINISH = 3;
+    /**
+     * 被取消，也是结束状态（status &gt;= FINISH）。低两位记录取消向哪些方向传播，见AsyncStream#cancel
+     */
+    protected static final int CANCELLED = 4;
+
+    private volatile int status;
+    private volatile int chainClosed;
+    private volatile int tick_mutex;
+
+    protected final int get_status() {
+        return status;
+    }
+
+    protected final void set_status(int value) {
+        status = value;
+    }
+
+    protected final void lazySet_status(int value) {
+        STATUS.setRelease(this, value);
+    }
+
+    protected final boolean cas_status(int expect, int update) {
+        if ((int) STATUS.getAcquire(this) != expect) return false;
+        return STATUS.compareAndSet(this, expect, update);
+    }
+
+    protected final boolean get_chainClosed() {
+        return chainClosed != 0;
+    }
+
+    protected final void set_chainClosed(boolean newValue) {
+        chainClosed = newValue ? 1 : 0;
+    }
+
+    public final boolean cas_chainClosed(boolean expect, boolean update) {
+        int e = expect ? 1 : 0;
+        if ((int) CHAIN_CLOSED.getAcquire(this) != e) return false;
+        return CHAIN_CLOSED.compareAndSet(this, e, update ? 1 : 0);
+    }
+
+    protected final boolean get_tick_mutex() {
+        return tick_mutex != 0;
+    }
+
+    protected final void set_tick_mutex(boolean newValue) {
+        tick_mutex = newValue ? 1 : 0;
+    }
+
+    protected final void lazySet_tick_mutex(boolean newValue) {
+        TICK_MUTEX.setRelease(this, newValue ? 1 : 0);
+    }
+
+    protected final boolean cas_tick_mutex(boolean expect, boolean update) {
+        int e = expect ? 1 : 0;
+        if ((int) TICK_MUTEX.getAcquire(this) != e) return false;
+        return TICK_MUTEX.compareAndSet(this, e, update ? 1 : 0);
+    }
+
+    /**
+     * 当条件不满足时，当前线程让出tick_mutex<p>
+     * Double Checking
+     * <p>条件用整数编号表示，由{@link #tick_condition(int)}求值，避免每次传入捕获变量的lambda以及Boolean装箱，
+     * 使tick的稳定路径上不分配对象。</p>
+     * <p>让出之后的第二次检查必须在setRelease之后读到其他线程新加入的事件，release只约束之前的读写，
+     * 之后的volatile读仍可能越过它提前执行（StoreLoad重排序），所以这里需要一次{@link VarHandle#fullFence()}。
+     * putOrderedInt与setRelease的语义相同，同样不能阻止这种重排序，Java 8的实现对应地使用<code>Unsafe.fullFence()</code>。</p>
+     *
+     * @param condition
+     *         保持tick_mutex的条件编号
+     * @return false则让出tick函数的执行权;true则不让出。
+     */
+    protected final boolean keep_tick_mutex_if(int condition) {
+        while (true) {
+            if (!tick_condition(condition)) {
+                TICK_MUTEX.setRelease(this, 0);
+                VarHandle.fullFence();
+                if (!tick_condition(condition))
+                    return false;
+                else if (!cas_tick_mutex(false, true))
+                    return false;
+                else
+                    continue;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param condition
+     *         条件编号，由子类定义
+     * @return 条件是否成立
+     */
+    protected boolean tick_condition(int condition) {
+        return false;
+    }
+}
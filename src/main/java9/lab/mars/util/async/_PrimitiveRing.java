@@ -0,0 +1,96 @@
+package lab.mars.util.async;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * 多生产者单消费者的有界环形队列（Vyukov bounded queue）的序号部分，存放元素的原始类型数组由子类提供，
+ * 所以入队出队都不会分配对象。
+ * <p>sequence[i]表示槽位i的状态：等于index时可以写入index，等于index+1时可以读出index。</p>
+ * <p>Java 9及以上的实现，读sequence用getAcquire，写sequence用setRelease，与Vyukov原算法的内存序一致。</p>
+ */
+abstract class _PrimitiveRing {
+    private static final VarHandle TAIL, SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static {
+        try {
+            TAIL = MethodHandles.lookup().findVarHandle(_PrimitiveRing.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    protected final int mask;
+    private final long[] sequence;
+    private volatile long tail;
+    private long head;
+
+    _PrimitiveRing(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity must be in (0, 2^30]: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        mask = size - 1;
+        sequence = new long[size];
+        for (int i = 0; i < size; i++)
+            sequence[i] = i;
+    }
+
+    /**
+     * @return 占到的index，队列已满则返回-1
+     */
+    @CalledByMultiThreads
+    protected final long claim() {
+        while (true) {
+            long t = tail;
+            long diff = (long) SEQUENCE.getAcquire(sequence, (int) (t & mask)) - t;
+            if (diff == 0) {
+                if (TAIL.compareAndSet(this, t, t + 1))
+                    return t;
+            } else if (diff < 0)
+                return -1;
+        }
+    }
+
+    /**
+     * 写入{@link #claim()}占到的槽位之后调用，使消费者可见
+     */
+    @CalledByMultiThreads
+    protected final void publish(long index) {
+        SEQUENCE.setRelease(sequence, (int) (index & mask), index + 1);
+    }
+
+    @CalledBySingleThread
+    final boolean isEmpty() {
+        long h = head;
+        return (long) SEQUENCE.getAcquire(sequence, (int) (h & mask)) != h + 1;
+    }
+
+    /**
+     * 调用前需要确认{@link #isEmpty()}为false
+     *
+     * @return 可读的index
+     */
+    @CalledBySingleThread
+    protected final long next() {
+        return head;
+    }
+
+    /**
+     * 读出{@link #next()}槽位的元素之后调用，使生产者可以复用此槽位
+     */
+    @CalledBySingleThread
+    protected final void release(long index) {
+        head = index + 1;
+        SEQUENCE.setRelease(sequence, (int) (index & mask), index + mask + 1);
+    }
+
+    /**
+     * 丢弃所有已发布的元素，只在被取消后的purge中调用
+     */
+    @CalledBySingleThread
+    final void clear() {
+        while (!isEmpty())
+            release(next());
+    }
+}
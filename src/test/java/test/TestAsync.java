@@ -4,6 +4,10 @@ import lab.mars.util.async.AsyncStream;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static lab.mars.util.async.AsyncStream.deferredAsync;
 import static lab.mars.util.async.AsyncStream.instantAsync;
 
@@ -282,4 +286,14 @@ public class TestAsync {
         async0.onEvent();
         Assert.assertTrue(e1[0] instanceof ArithmeticException);
     }
+
+    @Test
+    public void testReturnedEventBeforeExternal() {
+        List<Object> received = new ArrayList<>();
+        AsyncStream async = instantAsync().then(() -> "returned");//回传的事件是此AsyncStream的第一个事件
+        async.onEvent("external");
+        async.<String>then(e -> received.add(e))
+             .<String>then(e -> received.add(e));
+        Assert.assertEquals(Arrays.asList("returned", "external"), received);
+    }
 }
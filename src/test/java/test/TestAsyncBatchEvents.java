@@ -0,0 +1,107 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import lab.mars.util.async.Cleanable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestAsyncBatchEvents {
+
+    @Test
+    public void testOnEvents() {
+        List<Integer> recv = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer>then(e -> {
+            recv.add(e);
+        }).<Integer>loop(e -> {
+            recv.add(e);
+            return e != 4;
+        }).end();
+        async.onEvents(1, 2, 3, 4, 5);
+        Assert.assertTrue(async.isEnd());
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4), recv);
+    }
+
+    @Test
+    public void testOnEventsRange() {
+        List<Object> recv = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.loop(e -> recv.add(e));
+        async.onEvents(new Object[]{0, 1, null, 3, 4}, 1, 3);
+        Assert.assertEquals(Arrays.asList(1, null, 3), recv);
+    }
+
+    @Test
+    public void testOnEventsCollection() {
+        List<Object> recv = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.loop(e -> recv.add(e));
+        async.onEvents(Arrays.asList("a", "b", "c"));
+        async.onEvent("d");
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), recv);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOnEventsOutOfRange() {
+        AsyncStream.deferredAsync().onEvents(new Object[2], 1, 2);
+    }
+
+    @Test
+    public void testThenBatch() {
+        List<List<Integer>> batches = new ArrayList<>();
+        List<Integer> rest = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer>thenBatch(3, events -> batches.add(new ArrayList<>(events)))
+             .<Integer>loop(e -> {
+                 rest.add(e);
+                 return true;
+             });
+        async.onEvents(1, 2, 3, 4, 5);
+        Assert.assertEquals(Collections.singletonList(Arrays.asList(1, 2, 3)), batches);
+        Assert.assertEquals(Arrays.asList(4, 5), rest);
+    }
+
+    @Test
+    public void testLoopBatch() {
+        List<List<Integer>> batches = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer>loopBatch(2, events -> {
+            batches.add(new ArrayList<>(events));
+            return !events.contains(0);
+        }).end();
+        async.onEvents(1, 2, 3);//一次tick中依次取出[1, 2]、[3]
+        async.onEvent(4);
+        async.onEvents(5, 0, 6);
+        Assert.assertTrue(async.isEnd());
+        List<List<Integer>> expected = Arrays.asList(Arrays.asList(1, 2), Collections.singletonList(3),
+                                                     Collections.singletonList(4), Arrays.asList(5, 0));
+        Assert.assertEquals(expected, batches);
+    }
+
+    @Test
+    public void testBatchCleansEvents() {
+        List<Resource> resources = Arrays.asList(new Resource(), new Resource());
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.loopBatch(8, events -> {
+            for (Object event : events)
+                Assert.assertFalse(((Resource) event).cleaned);
+            return true;
+        });
+        async.onEvents(resources);
+        for (Resource resource : resources)
+            Assert.assertTrue(resource.cleaned);
+    }
+
+    static class Resource implements Cleanable {
+        boolean cleaned;
+
+        @Override public void clean() {
+            cleaned = true;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import lab.mars.util.async.Cleanable;
+import lab.mars.util.async.OverflowPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestAsyncBounded {
+
+    @Test
+    public void testReject() {
+        AsyncStream async = AsyncStream.boundedAsync(2, OverflowPolicy.REJECT);
+        Assert.assertTrue(async.onEvent(1));
+        Assert.assertTrue(async.onEvent(2));
+        Assert.assertTrue(!async.onEvent(3));
+        List<Object> recv = new ArrayList<>();
+        async.loop(e -> recv.add(e));
+        Assert.assertEquals(Arrays.asList(1, 2), recv);
+        Assert.assertTrue(async.onEvent(3));
+        Assert.assertEquals(Arrays.asList(1, 2, 3), recv);
+    }
+
+    @Test
+    public void testDropOldest() {
+        AsyncStream async = AsyncStream.boundedAsync(2, OverflowPolicy.DROP_OLDEST);
+        boolean[] cleaned = new boolean[]{false};
+        Cleanable first = () -> cleaned[0] = true;
+        Assert.assertTrue(async.onEvent(first));
+        Assert.assertTrue(async.onEvent(2));
+        Assert.assertTrue(async.onEvent(3));
+        Assert.assertTrue(cleaned[0]);
+        List<Object> recv = new ArrayList<>();
+        async.loop(e -> recv.add(e));
+        Assert.assertEquals(Arrays.asList(2, 3), recv);
+    }
+
+    @Test
+    public void testDropNewest() {
+        AsyncStream async = AsyncStream.boundedAsync(2, OverflowPolicy.DROP_NEWEST);
+        boolean[] cleaned = new boolean[]{false};
+        Assert.assertTrue(async.onEvent(1));
+        Assert.assertTrue(async.onEvent(2));
+        Assert.assertTrue(!async.onEvent((Cleanable) () -> cleaned[0] = true));
+        Assert.assertTrue(cleaned[0]);
+        Assert.assertEquals(0, async.onEvents(3, 4, 5));
+        List<Object> recv = new ArrayList<>();
+        async.loop(e -> recv.add(e));
+        Assert.assertEquals(Arrays.asList(1, 2), recv);
+    }
+
+    @Test
+    public void testWhenSpace() {
+        AsyncStream async = AsyncStream.boundedAsync(1, OverflowPolicy.REJECT);
+        Assert.assertTrue(async.whenSpace().isEnd());
+        Assert.assertTrue(async.onEvent(1));
+        AsyncStream space = async.whenSpace();
+        Assert.assertTrue(!space.isEnd());
+        List<Object> recv = new ArrayList<>();
+        space.whenEnd(() -> async.onEvent(2));
+        async.loop(e -> recv.add(e));
+        Assert.assertTrue(space.isEnd());
+        Assert.assertEquals(Arrays.asList(1, 2), recv);
+    }
+
+    @Test
+    public void testReturnedEventsBypassBound() {
+        AsyncStream async = AsyncStream.boundedAsync(1, OverflowPolicy.REJECT);
+        int[] recv = new int[1];
+        async.<Integer, Integer>then(e -> e + 1)
+             .<Integer>then(e -> recv[0] = e)
+             .end();
+        Assert.assertTrue(async.onEvent(1));
+        Assert.assertTrue(async.isEnd());
+        Assert.assertTrue(recv[0] == 2);
+    }
+}
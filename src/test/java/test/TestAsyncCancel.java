@@ -0,0 +1,145 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import lab.mars.util.async.Cleanable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestAsyncCancel {
+
+    static class Resource implements Cleanable {
+        boolean cleaned;
+
+        @Override public void clean() {
+            cleaned = true;
+        }
+    }
+
+    @Test
+    public void testCancelClearsQueues() {
+        List<String> trace = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.then(() -> "outer").await(AsyncStream.deferredAsync())//停在AWAIT
+             .then(() -> trace.add("then"))
+             .whenEnd(() -> trace.add("whenEnd"))
+             .<Object>whenEnd(e -> trace.add("whenEnd on event"));
+        Resource resource = new Resource();
+        async.onEvent(resource);
+        Assert.assertTrue(async.cancel());
+        Assert.assertTrue(async.isEnd());
+        Assert.assertTrue(async.isCancelled());
+        Assert.assertTrue(resource.cleaned);
+        Assert.assertFalse(async.onEvent(1));
+        Assert.assertFalse(async.cancel());
+        List<String> expected = new ArrayList<>();
+        expected.add("whenEnd");
+        Assert.assertEquals(expected, trace);
+        try {
+            async.join();
+            Assert.fail();
+        } catch (CancellationException expectedException) {
+        }
+    }
+
+    @Test
+    public void testCancelEnded() {
+        AsyncStream async = AsyncStream.instantAsync().end();
+        Assert.assertFalse(async.cancel());
+        Assert.assertFalse(async.isCancelled());
+    }
+
+    @Test
+    public void testNoPropagation() {
+        AsyncStream child = AsyncStream.deferredAsync();
+        child.<Integer, Integer>then(e -> e).end();
+        boolean[] resumed = new boolean[1];
+        AsyncStream parent = AsyncStream.instantAsync().await(child).then(() -> resumed[0] = true).end();
+        parent.cancel();
+        Assert.assertFalse(child.isEnd());
+        child.onEvent(1);//晚到的唤醒被忽略
+        Assert.assertTrue(child.isEnd());
+        Assert.assertFalse(resumed[0]);
+    }
+
+    @Test
+    public void testPropagateToAwaited() {
+        AsyncStream child = AsyncStream.deferredAsync().then(() -> {}).end();
+        AsyncStream a = AsyncStream.deferredAsync().end(), b = AsyncStream.deferredAsync().end();
+        AsyncStream parent = AsyncStream.instantAsync().await(child).end();
+        AsyncStream whenParent = AsyncStream.whenAsync(a, b).end();
+        parent.cancel(true);
+        whenParent.cancel(true);
+        Assert.assertTrue(child.isCancelled());
+        Assert.assertTrue(a.isCancelled());
+        Assert.assertTrue(b.isCancelled());
+    }
+
+    @Test
+    public void testPropagateToDependents() {
+        AsyncStream child = AsyncStream.deferredAsync().then(() -> {}).end();
+        AsyncStream other = AsyncStream.deferredAsync().end();
+        AsyncStream awaiting = AsyncStream.instantAsync().await(child).end();
+        AsyncStream thenReturning = AsyncStream.instantAsync().then(() -> child).end();
+        AsyncStream when = AsyncStream.whenAsync(child, other).end();
+        AsyncStream any = AsyncStream.whenAnyAsync(child, other).end();
+        child.cancel(true);
+        Assert.assertTrue(awaiting.isCancelled());
+        Assert.assertTrue(thenReturning.isCancelled());
+        Assert.assertTrue(when.isCancelled());
+        Assert.assertFalse(other.isCancelled());//向上传播的取消不再向下传播
+        Assert.assertFalse(any.isEnd());//whenAny中被取消的分支只算失败
+        other.onEvent();
+        Assert.assertTrue(any.isEnd());
+        Assert.assertFalse(any.isCancelled());
+    }
+
+    @Test
+    public void testSharedChildFailsOtherDependents() {
+        AsyncStream shared = AsyncStream.deferredAsync().then(() -> {}).end();
+        AsyncStream cancelled = AsyncStream.instantAsync().await(shared).end();
+        boolean[] resumed = new boolean[1];
+        List<Throwable> handled = new ArrayList<>();
+        AsyncStream survivor = AsyncStream.instantAsync();
+        survivor.exception(handled::add).await(shared).then(() -> resumed[0] = true).end();
+        cancelled.cancel(true);
+        Assert.assertTrue(shared.isCancelled());
+        Assert.assertFalse(resumed[0]);//不能当作成功唤醒
+        Assert.assertTrue(survivor.isEnd());
+        Assert.assertFalse(survivor.isCancelled());//向下传播的取消不再向上传播
+        Assert.assertEquals(1, handled.size());
+        Assert.assertTrue(handled.get(0) instanceof CancellationException);
+        try {
+            survivor.join();
+            Assert.fail();
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void testCancelWhileReleasingTickMutex() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 20000; i++) {
+                AsyncStream async = AsyncStream.deferredAsync();
+                CountDownLatch ended = new CountDownLatch(1);
+                async.whenEnd(ended::countDown);
+                Future<Boolean> cancelled = executor.submit(() -> async.cancel());
+                //事件不会来，持有者检查失败后让出tick_mutex，cancel的tick可能恰好没抢到
+                async.<Object>then(e -> {});
+                Assert.assertTrue(cancelled.get());
+                Assert.assertTrue("iteration " + i, ended.await(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
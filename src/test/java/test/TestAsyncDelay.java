@@ -0,0 +1,110 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TestAsyncDelay {
+
+    @Test
+    public void testDelay() {
+        long start = System.nanoTime();
+        AsyncStream async = AsyncStream.instantAsync();
+        async.delay(50, TimeUnit.MILLISECONDS)
+             .then(() -> System.nanoTime() - start)
+             .end();
+        Assert.assertFalse(async.isEnd());//delay不阻塞调用者
+        long elapsed = (Long) async.join();
+        Assert.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testDelayKeepsEvents() {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.delay(20, TimeUnit.MILLISECONDS)
+             .<Integer, Integer>then(e -> e * 2)
+             .end();
+        async.onEvent(21);
+        Assert.assertEquals(42, async.join());
+    }
+
+    @Test
+    public void testCancelDelay() throws Exception {
+        List<String> trace = new ArrayList<>();
+        AsyncStream async = AsyncStream.instantAsync();
+        async.delay(1, TimeUnit.HOURS)
+             .then(() -> trace.add("then"))
+             .end();
+        Assert.assertTrue(async.cancel());
+        //取消时定时任务被取消，时间轮不再引用async，then也就不会再执行
+        WeakReference<AsyncStream> ref = new WeakReference<>(async);
+        async = null;
+        assertCollected(ref);
+        Assert.assertTrue(trace.isEmpty());
+    }
+
+    @Test
+    public void testActionsNotRunOnTimerThread() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            AsyncStream slow = AsyncStream.instantAsync();
+            slow.delay(10, TimeUnit.MILLISECONDS)
+                .then(() -> {
+                    try {
+                        release.await();//不应占住所有AsyncStream共享的时间轮线程
+                    } catch (InterruptedException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                    return Thread.currentThread().getName();
+                })
+                .end();
+            AsyncStream fast = AsyncStream.instantAsync(executor);
+            fast.delay(50, TimeUnit.MILLISECONDS)
+                .then(() -> "fast")
+                .end();
+            Assert.assertEquals("fast", fast.get(10, TimeUnit.SECONDS));//slow仍阻塞时fast也能到期
+            release.countDown();
+            Assert.assertNotEquals("AsyncStream-timer", slow.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        List<Long> ticks = new ArrayList<>();
+        AsyncStream async = AsyncStream.interval(10, TimeUnit.MILLISECONDS);
+        async.<Long>loop(tick -> {
+            ticks.add(tick);
+            return tick < 4;
+        }).end();
+        async.join();
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < 5; i++)
+            expected.add(i);
+        Assert.assertEquals(expected, ticks);
+        //结束时定时任务被取消，时间轮不再引用async，之后不会再收到tick
+        WeakReference<AsyncStream> ref = new WeakReference<>(async);
+        async = null;
+        assertCollected(ref);
+        Assert.assertEquals(expected, ticks);
+    }
+
+    private static void assertCollected(WeakReference<?> ref) throws InterruptedException {
+        for (int i = 0; i < 500 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(ref.get());
+    }
+}
@@ -0,0 +1,80 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAsyncExecutor {
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testActionsRunOnExecutor() throws InterruptedException {
+        Thread caller = Thread.currentThread();
+        Thread[] runner = new Thread[1];
+        CountDownLatch latch = new CountDownLatch(1);
+        AsyncStream async = AsyncStream.deferredAsync(executor);
+        async.<Integer>then(e -> {
+            runner[0] = Thread.currentThread();
+        }).end(latch::countDown);
+        async.onEvent(1);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(async.isEnd());
+        Assert.assertTrue(runner[0] != null && runner[0] != caller);
+    }
+
+    @Test
+    public void testInstantAsync() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        int[] recv = new int[1];
+        AsyncStream.instantAsync(executor, 2)
+                   .<Integer>then(e -> recv[0] = e)
+                   .end(latch::countDown);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(recv[0] == 2);
+    }
+
+    @Test
+    public void testAtMostOneDrain() throws InterruptedException {
+        int nThreads = 4, load = 10000;
+        AtomicInteger running = new AtomicInteger(0);
+        boolean[] overlapped = new boolean[]{false};
+        int[] consumed = new int[1];
+        CountDownLatch end = new CountDownLatch(1);
+        AsyncStream async = AsyncStream.deferredAsync(executor);
+        async.<Integer>loop(e -> {
+            if (running.incrementAndGet() != 1) overlapped[0] = true;
+            consumed[0]++;
+            running.decrementAndGet();
+            return consumed[0] < nThreads * load;
+        }).end(end::countDown);
+
+        ExecutorService producers = Executors.newFixedThreadPool(nThreads);
+        for (int i = 0; i < nThreads; i++)
+            producers.submit(() -> {
+                for (int j = 0; j < load; j++)
+                    async.onEvent(j);
+            });
+        Assert.assertTrue(end.await(10, TimeUnit.SECONDS));
+        producers.shutdownNow();
+        Assert.assertTrue(!overlapped[0]);
+        Assert.assertTrue(consumed[0] == nThreads * load);
+    }
+}
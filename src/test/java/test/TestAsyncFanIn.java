@@ -0,0 +1,172 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class TestAsyncFanIn {
+    static final int WIDTH = 10000, THREADS = 4;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private List<AsyncStream> children(int width) {
+        List<AsyncStream> children = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            AsyncStream child = AsyncStream.deferredAsync();
+            child.<Integer, Integer>then(e -> e * 2).end();
+            children.add(child);
+        }
+        return children;
+    }
+
+    private void completeConcurrently(List<AsyncStream> children) {
+        for (int t = 0; t < THREADS; t++) {
+            int _t = t;
+            executor.submit(() -> {
+                for (int i = _t; i < children.size(); i += THREADS)
+                    children.get(i).onEvent(i);
+            });
+        }
+    }
+
+    @Test
+    public void testWideWhen() throws Exception {
+        List<AsyncStream> children = children(WIDTH);
+        AsyncStream parent = AsyncStream.whenAsync(children).then(() -> "done").end();
+        Assert.assertFalse(parent.isEnd());
+        completeConcurrently(children);
+        Assert.assertEquals("done", parent.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWideCollect() throws Exception {
+        List<AsyncStream> children = children(WIDTH);
+        AsyncStream parent = AsyncStream.collectAsync(children).end();
+        completeConcurrently(children);
+        Object[] result = (Object[]) parent.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(WIDTH, result.length);
+        for (int i = 0; i < WIDTH; i++)
+            Assert.assertEquals(i * 2, result[i]);
+    }
+
+    @Test
+    public void testNarrowCollect() {
+        AsyncStream a = AsyncStream.instantAsync(1).end(), b = AsyncStream.instantAsync("b").end();
+        Object[] result = (Object[]) AsyncStream.collectAsync(a, b).end().join();
+        Assert.assertArrayEquals(new Object[]{1, "b"}, result);
+    }
+
+    @Test
+    public void testWhenAny() {
+        List<AsyncStream> children = children(3);
+        AsyncStream parent = AsyncStream.whenAnyAsync(children).end();
+        children.get(1).onEvent(5);
+        Assert.assertEquals(10, parent.join());
+        children.get(0).onEvent(1);//晚到的不影响结果
+        Assert.assertEquals(10, parent.join());
+    }
+
+    @Test
+    public void testWhenAnySkipsFailures() {
+        AsyncStream failing = AsyncStream.instantAsync().exception(e -> {});
+        failing.then(() -> {throw new IllegalStateException();});
+        List<AsyncStream> children = children(1);
+        AsyncStream parent = AsyncStream.whenAnyAsync(failing, children.get(0)).end();
+        Assert.assertFalse(parent.isEnd());
+        children.get(0).onEvent(3);
+        Assert.assertEquals(6, parent.join());
+    }
+
+    @Test
+    public void testRaceFailure() {
+        IllegalStateException error = new IllegalStateException("first");
+        AsyncStream failing = AsyncStream.instantAsync().exception(e -> {});
+        List<AsyncStream> children = children(2);
+        AsyncStream parent = AsyncStream.raceAsync(failing, children.get(0), children.get(1))
+                                        .exception(e -> {})
+                                        .end();
+        failing.then(() -> {throw error;});
+        try {
+            parent.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void testQuorum() {
+        List<AsyncStream> children = children(3);
+        AsyncStream parent = AsyncStream.quorumAsync(2, children).end();
+        children.get(2).onEvent(1);
+        Assert.assertFalse(parent.isEnd());
+        children.get(0).onEvent(2);
+        Assert.assertArrayEquals(new Object[]{2, 4}, (Object[]) parent.join());
+    }
+
+    @Test
+    public void testQuorumUnreachable() {
+        List<AsyncStream> children = children(2);
+        AsyncStream failing = AsyncStream.instantAsync().exception(e -> {});
+        AsyncStream parent = AsyncStream.quorumAsync(2, failing, children.get(0), children.get(1))
+                                        .exception(e -> {})
+                                        .end();
+        failing.then(() -> {throw new IllegalStateException();});
+        Assert.assertFalse(parent.isEnd());
+        children.get(1).onEvent(1);
+        Assert.assertFalse(parent.isEnd());
+        children.get(0).onEvent(0);
+        Assert.assertArrayEquals(new Object[]{2, 0}, (Object[]) parent.join());
+        AsyncStream failing2 = AsyncStream.instantAsync().exception(e -> {});
+        AsyncStream failing3 = AsyncStream.instantAsync().exception(e -> {});
+        AsyncStream unreachable = AsyncStream.quorumAsync(2, failing2, failing3, children(1).get(0))
+                                             .exception(e -> {})
+                                             .end();
+        failing2.then(() -> {throw new IllegalStateException();});
+        Assert.assertFalse(unreachable.isEnd());
+        failing3.then(() -> {throw new IllegalStateException();});
+        Assert.assertTrue(unreachable.isEnd());
+    }
+
+    @Test
+    public void testLosersReleaseParent() throws InterruptedException {
+        List<AsyncStream> children = children(2);
+        WeakReference<AsyncStream> parent = new WeakReference<>(AsyncStream.whenAnyAsync(children).end());
+        children.get(0).onEvent(1);
+        for (int i = 0; i < 50 && parent.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(parent.get());
+        Assert.assertFalse(children.get(1).isEnd());//输家仍然存活
+    }
+
+    @Test
+    public void testLosersReleaseParentDecidedWhileRegistering() throws InterruptedException {
+        AsyncStream winner = AsyncStream.instantAsync().then(() -> 1).end();//登记时就已经结束
+        AsyncStream loser = AsyncStream.deferredAsync();
+        WeakReference<AsyncStream> parent = new WeakReference<>(AsyncStream.whenAnyAsync(winner, loser).end());
+        for (int i = 0; i < 50 && parent.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(parent.get());
+        Assert.assertFalse(loser.isEnd());
+    }
+}
@@ -0,0 +1,66 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+/**
+ * 用JOL固定每个AsyncStream的内存占用，防止新增的字段或者提前创建的对象悄悄地让大量空闲AsyncStream的堆占用变大。
+ * <p>上限按64位JVM、压缩指针（对象头12字节）计算，其他布局下跳过。retained是1000个AsyncStream一起统计后的平均值，
+ * 共享的对象（空的{@link lab.mars.util.async.AsyncPipeline}、无捕获的lambda）只算一次。</p>
+ */
+public class TestAsyncFootprint {
+    static final long MAX_SHALLOW = 112;
+    static final int STREAMS = 1000;
+
+    @Before
+    public void compressedLayout() {
+        Assume.assumeTrue(VM.current().objectHeaderSize() == 12);
+    }
+
+    @Test
+    public void testShallowSize() {
+        long size = ClassLayout.parseClass(AsyncStream.class).instanceSize();
+        Assert.assertTrue(ClassLayout.parseClass(AsyncStream.class).toPrintable(), size <= MAX_SHALLOW);
+    }
+
+    @Test
+    public void testIdleStream() {
+        AsyncStream[] streams = new AsyncStream[STREAMS];
+        for (int i = 0; i < STREAMS; i++)
+            streams[i] = AsyncStream.deferredAsync();
+        //没有action、没有事件时不应创建任何队列
+        Assert.assertTrue(retainedPerStream(streams) + " bytes", retainedPerStream(streams) <= MAX_SHALLOW + 8);
+    }
+
+    @Test
+    public void testQueuedEvent() {
+        Object event = new Object();
+        AsyncStream[] streams = new AsyncStream[STREAMS];
+        for (int i = 0; i < STREAMS; i++) {
+            streams[i] = AsyncStream.deferredAsync();
+            streams[i].onEvent(event);//第一个事件放在内联的位置中
+        }
+        Assert.assertTrue(retainedPerStream(streams) + " bytes", retainedPerStream(streams) <= MAX_SHALLOW + 8);
+    }
+
+    @Test
+    public void testPendingRequest() {
+        AsyncStream[] streams = new AsyncStream[STREAMS];
+        for (int i = 0; i < STREAMS; i++) {
+            streams[i] = AsyncStream.deferredAsync();
+            streams[i].<Object>then(e -> {});//等待响应的请求：一个action，没有事件
+        }
+        //只多出action的包装对象
+        Assert.assertTrue(retainedPerStream(streams) + " bytes", retainedPerStream(streams) <= MAX_SHALLOW + 24);
+    }
+
+    private static long retainedPerStream(AsyncStream[] streams) {
+        return GraphLayout.parseInstance((Object[]) streams).totalSize() / streams.length;
+    }
+}
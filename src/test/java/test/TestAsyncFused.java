@@ -0,0 +1,81 @@
+package test;
+
+import lab.mars.util.async.AsyncPipeline;
+import lab.mars.util.async.AsyncStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestAsyncFused {
+
+    @Test
+    public void testMapFilter() {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>map(e -> e * 10)
+             .<Integer>filter(e -> e > 20)
+             .<String, Integer>map(e -> "v" + e)
+             .end();
+        async.onEvents(1, 2);
+        Assert.assertFalse(async.isEnd());//都被丢弃，等待下一个事件
+        async.onEvent(3);
+        Assert.assertEquals("v30", async.join());
+    }
+
+    @Test
+    public void testFlatMap() {
+        List<Object> recv = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>flatMap(e -> Collections.nCopies(e, e))
+             .<Integer, Integer>map(e -> e + 1)
+             .loop(e -> recv.add(e));
+        async.onEvents(0, 2, 3);
+        //flatMap只执行一次：0展开为空，接着取2，输出的两个3交给loop，之后的事件3原样交给loop
+        Assert.assertEquals(Arrays.asList(3, 3, 3), recv);
+    }
+
+    @Test
+    public void testScanReduce() {
+        List<Object> recv = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer>filter(e -> e % 2 == 1)
+             .<Integer, Integer>scan(3, 0, (sum, e) -> sum + e)
+             .<Integer>then(e -> recv.add(e))
+             .<Integer>then(e -> recv.add(e))
+             .<Integer>then(e -> recv.add(e))
+             .<Integer, Integer>reduce(3, 1, (product, e) -> product * e)
+             .end();
+        async.onEvents(1, 2, 3);
+        async.onEvents(4, 5, 6, 7);
+        Assert.assertEquals(Arrays.asList(1, 4, 9), recv);
+        Assert.assertFalse(async.isEnd());
+        async.onEvent(8);
+        Assert.assertEquals(336, async.join());//scan用到5为止，6 * 7 * 8
+    }
+
+    @Test
+    public void testAppendAfterStarted() {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>map(e -> e + 1);
+        async.onEvent(1);//已经执行，之后的map不能再合并进去
+        async.<Integer, Integer>map(e -> e * 10).end();
+        Assert.assertEquals(20, async.join());
+    }
+
+    @Test
+    public void testPipeline() {
+        AsyncPipeline pipeline = AsyncPipeline.builder()
+                                              .<Integer, Integer>map(e -> e * 2)
+                                              .<Integer>filter(e -> e > 2)
+                                              .end();
+        AsyncStream a = pipeline.deferredAsync();
+        AsyncStream b = pipeline.deferredAsync();
+        a.onEvents(1, 2);
+        b.onEvent(5);
+        Assert.assertEquals(4, a.join());
+        Assert.assertEquals(10, b.join());
+    }
+}
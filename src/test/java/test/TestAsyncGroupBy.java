@@ -0,0 +1,152 @@
+package test;
+
+import lab.mars.util.async.AsyncPipeline;
+import lab.mars.util.async.AsyncStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAsyncGroupBy {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPerKeyOrder() throws Exception {
+        int keys = 4, count = 1000;
+        Map<Integer, List<Integer>> received = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(keys * count);
+        AsyncPipeline template = AsyncPipeline.builder()
+                                              .<Integer>loop(e -> {
+                                                  received.computeIfAbsent(e % keys, k -> new ArrayList<>()).add(e);
+                                                  latch.countDown();
+                                                  return true;
+                                              })
+                                              .build();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>groupBy(e -> e % keys, template, executor, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < keys * count; i++)
+            async.onEvent(i);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int k = 0; k < keys; k++) {
+            List<Integer> list = received.get(k);
+            Assert.assertEquals(count, list.size());
+            for (int i = 0; i < count; i++)
+                Assert.assertEquals(k + i * keys, (int) list.get(i));
+        }
+    }
+
+    @Test
+    public void testKeysRunConcurrently() throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        CountDownLatch latch = new CountDownLatch(2);
+        AsyncPipeline template = AsyncPipeline.builder()
+                                              .<String>loop(e -> {
+                                                  try {
+                                                      barrier.await(5, TimeUnit.SECONDS);//两个key同时进入才能通过
+                                                      latch.countDown();
+                                                  } catch (Exception ex) {
+                                                      throw new RuntimeException(ex);
+                                                  }
+                                                  return true;
+                                              })
+                                              .build();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<String, String>groupBy(e -> e, template, executor, 0, TimeUnit.MILLISECONDS);
+        async.onEvent("a");
+        async.onEvent("b");
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIdleKeyEvictedAndRecreated() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger evicted = new AtomicInteger();
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        AsyncPipeline template = AsyncPipeline.builder()
+                                              .<String>then(e -> {//子AsyncStream的第一个事件
+                                                  created.incrementAndGet();
+                                                  received.add(e);
+                                              })
+                                              .<String>loop(e -> received.add(e))
+                                              .whenEnd(() -> evicted.incrementAndGet())
+                                              .build();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<String, String>groupBy(e -> e, template, null, 50, TimeUnit.MILLISECONDS);
+        async.onEvent("a");
+        Assert.assertEquals("a", received.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, created.get());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (evicted.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(1, evicted.get());
+        async.onEvent("a");
+        Assert.assertEquals("a", received.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, created.get());
+    }
+
+    @Test
+    public void testBusyKeyNotEvicted() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Semaphore evictions = new Semaphore(0);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger evicted = new AtomicInteger();
+        AsyncPipeline template = AsyncPipeline.builder()
+                                              .<String, String>then(e -> {
+                                                  if (e.equals("busy"))
+                                                      try {
+                                                          release.await(10, TimeUnit.SECONDS);//一直执行到idle被淘汰两次之后
+                                                      } catch (InterruptedException ex) {
+                                                          throw new RuntimeException(ex);
+                                                      }
+                                                  return e;
+                                              })
+                                              .<String>then(e -> {
+                                                  if (e.equals("busy") && evicted.get() == 2) done.countDown();//执行期间没有被淘汰
+                                              })
+                                              .whenEnd(() -> {
+                                                  evicted.incrementAndGet();
+                                                  evictions.release();
+                                              })
+                                              .build();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<String, String>groupBy(e -> e, template, executor, 50, TimeUnit.MILLISECONDS);
+        async.onEvent("idle");
+        async.onEvent("busy");
+        Assert.assertTrue(evictions.tryAcquire(5, TimeUnit.SECONDS));
+        //第二次淘汰idle时，与busy同时空闲的周期已经完整地检查过了
+        async.onEvent("idle");
+        Assert.assertTrue(evictions.tryAcquire(5, TimeUnit.SECONDS));
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testChildrenCancelledWhenParentEnds() throws Exception {
+        AtomicInteger ended = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(3);
+        AsyncPipeline template = AsyncPipeline.builder()
+                                              .<Integer>loop(e -> {
+                                                  latch.countDown();
+                                                  return true;
+                                              })
+                                              .whenEnd(() -> ended.incrementAndGet())
+                                              .build();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>groupBy(e -> e, template, null, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 3; i++)
+            async.onEvent(i);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, ended.get());
+        async.cancel();
+        Assert.assertEquals(3, ended.get());
+        Assert.assertFalse(async.onEvent(0));
+    }
+}
@@ -0,0 +1,148 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import lab.mars.util.async.WaitStrategy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.*;
+
+public class TestAsyncJoin {
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testJoinEnded() {
+        AsyncStream async = AsyncStream.instantAsync(1)
+                                       .<Integer, Integer>then(e -> e + 1)
+                                       .end();
+        Assert.assertEquals(2, async.join());
+        Assert.assertEquals(2, async.join());//join不消费结果
+        Assert.assertEquals(2, async.getNow(null));
+    }
+
+    @Test
+    public void testJoinStrategies() {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            AsyncStream async = AsyncStream.deferredAsync(executor);
+            async.<String, Integer>then(e -> "r" + e).end();
+            executor.submit(() -> async.onEvent(7));
+            Assert.assertEquals("r7", async.join(strategy));
+        }
+    }
+
+    @Test
+    public void testGetNow() {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>then(e -> e * 2).end();
+        Assert.assertEquals("absent", async.getNow("absent"));
+        async.onEvent(21);
+        Assert.assertEquals(42, async.getNow("absent"));
+    }
+
+    @Test
+    public void testGetNowDoesNotWaitForEndChain() {
+        AsyncStream async = AsyncStream.instantAsync();
+        async.<Object>whenEnd(e -> {})//结束后不会再有事件，这个whenEnd action永远等待
+             .end();
+        Assert.assertTrue(async.isEnd());
+        Assert.assertEquals("absent", async.getNow("absent"));
+    }
+
+    @Test
+    public void testGetTimeout() throws Exception {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer>then(e -> {}).end();
+        try {
+            async.get(10, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (TimeoutException expected) {
+        }
+        executor.submit(() -> async.onEvent(1));
+        Assert.assertNull(async.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRepeatedGetTimeout() throws Exception {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>then(e -> e + 1).end();
+        Thread poller = new Thread(() -> {
+            for (int i = 0; i < 100; i++)
+                try {
+                    async.get(1, TimeUnit.MILLISECONDS);
+                    Assert.fail();
+                } catch (TimeoutException expected) {
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+        });
+        poller.start();
+        poller.join();
+        WeakReference<Thread> pollerRef = new WeakReference<>(poller);
+        poller = null;
+        //超时的等待对象仍在whenEnd链中，但不应再引用已经结束的线程
+        for (int i = 0; i < 50 && pollerRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(pollerRef.get());
+        async.onEvent(1);
+        Assert.assertEquals(2, async.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        RuntimeException error = new RuntimeException("boom");
+        AsyncStream async = AsyncStream.instantAsync()
+                                       .exception(e -> {})
+                                       .then(() -> {throw error;})
+                                       .end();
+        try {
+            async.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertSame(error, e.getCause());
+        }
+        try {
+            async.get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void testManyJoiners() throws Exception {
+        int joiners = 64;
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>then(e -> e).end();
+        ExecutorService pool = Executors.newFixedThreadPool(joiners);
+        try {
+            CountDownLatch started = new CountDownLatch(joiners);
+            Future<?>[] results = new Future<?>[joiners];
+            for (int i = 0; i < joiners; i++)
+                results[i] = pool.submit(() -> {
+                    started.countDown();
+                    return async.join();
+                });
+            started.await();
+            async.onEvent(5);
+            for (Future<?> result : results)
+                Assert.assertEquals(5, result.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import lab.mars.util.async.AsyncStreamMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * 探针只能在AsyncStream加载前通过系统属性安装，这里直接驱动一个{@link AsyncStreamMetrics}检查汇总，
+ * 完整的路径用<code>-Dlab.mars.util.async.probe=metrics</code>运行所有测试来检查。
+ */
+public class TestAsyncMetrics {
+
+    @Test
+    public void testSnapshot() {
+        AsyncStreamMetrics metrics = new AsyncStreamMetrics();
+        AsyncStream async = AsyncStream.deferredAsync();
+        metrics.eventsOffered(async, 3);
+        metrics.eventConsumed(async);
+        metrics.actionExecuted(async, null);
+        metrics.tickAcquired(async);
+        metrics.tickContended(async);
+        metrics.statusChanged(async, 1, 0, 100);
+        metrics.statusChanged(async, 2, 0, 50);
+        metrics.statusChanged(async, 2, 4, 50);
+        metrics.statusChanged(async, 6, 4, 1);//CANCELLED带传播标记的低位
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        Assert.assertEquals(3L, (long) snapshot.get("events.offered"));
+        Assert.assertEquals(1L, (long) snapshot.get("events.consumed"));
+        Assert.assertEquals(1L, (long) snapshot.get("actions.executed"));
+        Assert.assertEquals(1L, (long) snapshot.get("ticks.acquired"));
+        Assert.assertEquals(1L, (long) snapshot.get("ticks.contended"));
+        Assert.assertEquals(100L, (long) snapshot.get("status.deferred.nanos"));
+        Assert.assertEquals(100L, (long) snapshot.get("status.await.nanos"));
+        Assert.assertEquals(1L, (long) snapshot.get("status.cancelled.nanos"));
+
+        metrics.reset();
+        for (long value : metrics.snapshot().values())
+            Assert.assertEquals(0L, value);
+    }
+}
@@ -0,0 +1,105 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAsyncParallelLoop {
+    static final int N = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static Integer slowSquare(Integer e) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+        return e * e;
+    }
+
+    @Test
+    public void testOrdered() {
+        List<Integer> recv = new ArrayList<>();
+        AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>parallelLoop(executor, 4, true, e -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Integer result = slowSquare(e);
+            running.decrementAndGet();
+            return result;
+        }, e -> {
+            recv.add(e);
+            return recv.size() < N;
+        }).end();
+        for (int i = 0; i < N; i++)
+            async.onEvent(i);
+        async.join();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < N; i++)
+            expected.add(i * i);
+        Assert.assertEquals(expected, recv);
+        Assert.assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testUnordered() {
+        List<Integer> recv = Collections.synchronizedList(new ArrayList<>());
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>parallelLoop(executor, 8, false, TestAsyncParallelLoop::slowSquare, e -> {
+            recv.add(e);
+            return recv.size() < N;
+        }).end();
+        for (int i = 0; i < N; i++)
+            async.onEvent(i);
+        async.join();
+        HashSet<Integer> expected = new HashSet<>();
+        for (int i = 0; i < N; i++)
+            expected.add(i * i);
+        Assert.assertEquals(expected, new HashSet<>(recv));
+        Assert.assertEquals(N, recv.size());
+    }
+
+    @Test
+    public void testRemainingEventsGoToNextAction() {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.<Integer, Integer>parallelLoop(executor, 1, true, e -> e, e -> e < 2)
+             .<Integer, Integer>then(e -> e * 100)
+             .end();
+        async.onEvents(0, 1, 2, 3);//parallelism为1，取出2时loop结束，3留给之后的action
+        Assert.assertEquals(300, async.join());
+    }
+
+    @Test
+    public void testHandlerFailure() {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.exception(e -> {})
+             .<Integer, Integer>parallelLoop(executor, 2, true, e -> {
+                 if (e == 3) throw new IllegalStateException("boom");
+                 return e;
+             }, e -> true)
+             .end();
+        async.onEvents(1, 2, 3, 4);
+        try {
+            async.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package test;
+
+import lab.mars.util.async.AsyncPipeline;
+import lab.mars.util.async.AsyncStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestAsyncPipeline {
+
+    @Test
+    public void testSharedPipeline() {
+        List<Object> recv = new ArrayList<>();
+        int[] ended = new int[1];
+        AsyncPipeline pipeline = AsyncPipeline.builder()
+                                              .<Integer, Integer>then(e -> e * 10)
+                                              .<Integer>then(e -> {
+                                                  recv.add(e);
+                                              })
+                                              .<Integer>loop(e -> {
+                                                  recv.add(e);
+                                                  return e > 0;
+                                              })
+                                              .end(() -> ended[0]++);
+        AsyncStream async1 = pipeline.deferredAsync();
+        AsyncStream async2 = pipeline.instantAsync(2, 3);
+        Assert.assertTrue(async1.chainClosed());
+        Assert.assertTrue(!async2.isEnd());
+        Assert.assertEquals(Arrays.asList(20, 3), recv);
+        async1.onEvent(1);
+        Assert.assertEquals(Arrays.asList(20, 3, 10), recv);
+        async1.onEvent(0);
+        Assert.assertTrue(async1.isEnd());
+        Assert.assertTrue(!async2.isEnd());
+        async2.onEvent(0);
+        Assert.assertTrue(async2.isEnd());
+        Assert.assertTrue(ended[0] == 2);
+        Assert.assertEquals(Arrays.asList(20, 3, 10, 0, 0), recv);
+    }
+
+    @Test
+    public void testExtendPipeline() {
+        List<Object> recv = new ArrayList<>();
+        AsyncPipeline pipeline = AsyncPipeline.builder().then(e -> {
+            recv.add(e);
+        }).build();
+        AsyncStream async = pipeline.deferredAsync();
+        Assert.assertTrue(!async.chainClosed());
+        async.then(e -> {
+            recv.add("dynamic " + e);
+        }).end();
+        async.onEvent(1);
+        async.onEvent(2);
+        Assert.assertTrue(async.isEnd());
+        Assert.assertEquals(Arrays.asList(1, "dynamic 2"), recv);
+    }
+
+    @Test
+    public void testAwaitInPipeline() {
+        int[] result = new int[1];
+        AsyncStream another = AsyncStream.deferredAsync().then(e -> e).end();
+        AsyncPipeline pipeline = AsyncPipeline.builder()
+                                              .then(() -> another)
+                                              .<Integer>then(e -> result[0] = e)
+                                              .end();
+        AsyncStream async = pipeline.instantAsync();
+        Assert.assertTrue(!async.isEnd());
+        another.onEvent(5);
+        Assert.assertTrue(async.isEnd());
+        Assert.assertTrue(result[0] == 5);
+    }
+
+    @Test
+    public void testBuilderRejectsUseAfterBuild() {
+        AsyncPipeline.Builder builder = AsyncPipeline.builder().<Integer, Integer>map(e -> e + 1);
+        AsyncPipeline pipeline = builder.build();
+        try {
+            builder.<Integer, Integer>map(e -> e * 10);//不能合并进已经共享的map
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            builder.end();
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Object[] recv = new Object[1];
+        pipeline.instantAsync(1).then(e -> {
+            recv[0] = e;
+        });
+        Assert.assertEquals(2, recv[0]);
+
+        AsyncPipeline.Builder closed = AsyncPipeline.builder().then(e -> {
+        });
+        closed.end();
+        try {
+            closed.end();//不会再追加一个END
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
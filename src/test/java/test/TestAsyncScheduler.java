@@ -0,0 +1,108 @@
+package test;
+
+import lab.mars.util.async.AsyncScheduler;
+import lab.mars.util.async.AsyncStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAsyncScheduler {
+    AsyncScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) scheduler.shutdown();
+    }
+
+    @Test
+    public void testManyActors() throws Exception {
+        scheduler = new AsyncScheduler(4, 16);
+        int actors = 10000, messages = 10;
+        AtomicInteger total = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(actors);
+        List<AsyncStream> list = new ArrayList<>();
+        for (int i = 0; i < actors; i++) {
+            AsyncStream actor = scheduler.deferredAsync();
+            int[] expected = {0};
+            actor.<Integer>loop(e -> {
+                Assert.assertEquals(expected[0]++, (int) e);//同一actor中保持顺序
+                total.incrementAndGet();
+                if (e == messages - 1) latch.countDown();
+                return true;
+            });
+            list.add(actor);
+        }
+        for (int m = 0; m < messages; m++)
+            for (AsyncStream actor : list)
+                actor.onEvent(m);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(actors * messages, total.get());
+    }
+
+    @Test
+    public void testTurnBudgetIsFair() throws Exception {
+        scheduler = new AsyncScheduler(1, 4);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncStream gate = scheduler.deferredAsync();
+        gate.then(() -> {//占住唯一的线程，直到两个actor都有事件
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }).end();
+        gate.onEvent(0);
+        Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        List<String> trace = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2);
+        AsyncStream busy = scheduler.deferredAsync();
+        busy.<Integer>loop(e -> {
+            trace.add("busy");
+            if (e == 99) done.countDown();
+            return true;
+        });
+        AsyncStream quiet = scheduler.deferredAsync();
+        quiet.then(() -> {
+            trace.add("quiet");
+            done.countDown();
+        }).end();
+        for (int i = 0; i < 100; i++)
+            busy.onEvent(i);
+        quiet.onEvent(0);
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        //busy每轮最多执行4个action，之后排到quiet之后
+        Assert.assertEquals(4, trace.indexOf("quiet"));
+        Assert.assertEquals(101, trace.size());
+    }
+
+    @Test
+    public void testJoinAndEnd() {
+        scheduler = new AsyncScheduler(2, 1);
+        AsyncStream async = scheduler.instantAsync(1);
+        async.<Integer, Integer>then(e -> e + 1)
+             .<Integer, Integer>then(e -> e * 10)
+             .end();
+        Assert.assertEquals(20, async.join());
+    }
+
+    @Test
+    public void testRunsOnCallerAfterShutdown() {
+        scheduler = new AsyncScheduler(1, 8);
+        AsyncStream async = scheduler.deferredAsync();
+        scheduler.shutdown();
+        async.<Integer, Integer>then(e -> e + 1).end();
+        async.onEvent(1);
+        Assert.assertEquals(2, async.join());
+    }
+}
@@ -0,0 +1,90 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAsyncTickBudget {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testActionBudget() throws Exception {
+        Thread producer = Thread.currentThread();
+        AtomicInteger onProducer = new AtomicInteger();
+        AtomicInteger handedOff = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(100);
+        AsyncStream async = AsyncStream.deferredAsync().tickBudget(5, 0, TimeUnit.MILLISECONDS, executor);
+        for (int i = 0; i < 100; i++)
+            async.onEvent(i);//还没有action，只入队
+        async.loop(e -> {
+            if (Thread.currentThread() == producer) onProducer.incrementAndGet();
+            else handedOff.incrementAndGet();
+            latch.countDown();
+            return true;
+        });
+        Assert.assertEquals(5, onProducer.get());//用完预算后交给executor
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(95, handedOff.get());
+    }
+
+    @Test
+    public void testTimeBudget() throws Exception {
+        Thread producer = Thread.currentThread();
+        AtomicInteger onProducer = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(10);
+        AsyncStream async = AsyncStream.deferredAsync().tickBudget(0, 1, TimeUnit.MILLISECONDS, executor);
+        for (int i = 0; i < 10; i++)
+            async.onEvent(i);
+        async.loop(e -> {
+            if (Thread.currentThread() == producer) onProducer.incrementAndGet();
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2)) ;//超过时间预算
+            latch.countDown();
+            return true;
+        });
+        Assert.assertEquals(1, onProducer.get());
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOrderAndEndAcrossHandOffs() {
+        StringBuilder trace = new StringBuilder();
+        AsyncStream async = AsyncStream.deferredAsync().tickBudget(1, 0, TimeUnit.MILLISECONDS, executor);
+        async.<Integer>then(e -> trace.append(e))
+             .<Integer>then(e -> trace.append(e))
+             .<Integer>then(e -> trace.append(e))
+             .whenEnd(() -> trace.append("end"))
+             .whenEnd(() -> trace.append("!"))
+             .end();
+        for (int i = 0; i < 3; i++)
+            async.onEvent(i);
+        async.join();
+        Assert.assertEquals("012end!", trace.toString());
+    }
+
+    @Test
+    public void testFallsBackToProducerWhenRejected() {
+        executor.shutdown();
+        AtomicInteger count = new AtomicInteger();
+        AsyncStream async = AsyncStream.deferredAsync().tickBudget(1, 0, TimeUnit.MILLISECONDS, executor);
+        for (int i = 0; i < 10; i++)
+            async.onEvent(i);
+        async.loop(e -> {
+            count.incrementAndGet();
+            return true;
+        });
+        Assert.assertEquals(10, count.get());
+    }
+}
@@ -0,0 +1,182 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestAsyncTimeout {
+
+    @Test
+    public void testStreamTimeout() {
+        AtomicReference<Throwable> handled = new AtomicReference<>();
+        List<String> trace = new ArrayList<>();
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.exception(handled::set)
+             .then(() -> trace.add("then"))
+             .whenEnd(() -> trace.add("whenEnd"))
+             .timeout(50, TimeUnit.MILLISECONDS);
+        try {
+            async.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertTrue(handled.get() instanceof TimeoutException);
+        List<String> expected = new ArrayList<>();
+        expected.add("whenEnd");
+        Assert.assertEquals(expected, trace);
+        Assert.assertFalse(async.onEvent(1));
+    }
+
+    @Test
+    public void testNoTimeoutWhenEndedInTime() throws Exception {
+        AsyncStream async = AsyncStream.deferredAsync();
+        async.exception(e -> Assert.fail())
+             .timeout(1, TimeUnit.HOURS)
+             .<Integer, Integer>then(e -> e + 1)
+             .end();
+        async.onEvent(1);
+        Assert.assertEquals(2, async.join());
+        //结束时期限被取消，时间轮不再引用async
+        WeakReference<AsyncStream> ref = new WeakReference<>(async);
+        async = null;
+        assertCollected(ref);
+    }
+
+    @Test
+    public void testAwaitTimeout() {
+        AsyncStream never = AsyncStream.deferredAsync();
+        AsyncStream async = AsyncStream.instantAsync();
+        async.exception(e -> {})
+             .await(never, 50, TimeUnit.MILLISECONDS)
+             .end();
+        try {
+            async.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertFalse(never.isEnd());//超时只结束等待者
+    }
+
+    @Test
+    public void testAwaitTimeoutOnlyWhileAwaiting() throws Exception {
+        AsyncStream other = AsyncStream.deferredAsync();
+        other.then(() -> "other").end();
+        List<String> trace = new ArrayList<>();
+        AsyncStream async = AsyncStream.instantAsync();
+        async.exception(e -> Assert.fail())
+             .await(other, 1, TimeUnit.HOURS)
+             .<String>then(e -> trace.add(e))
+             .<Object>then(e -> {})//停在DEFERRED，期限只作用于await期间
+             .end();
+        other.onEvent(0);
+        Assert.assertEquals("other", trace.get(0));
+        Assert.assertFalse(async.isEnd());
+        //await结束时期限被取消：时间轮不再引用仍未结束的async
+        WeakReference<AsyncStream> ref = new WeakReference<>(async);
+        async = null;
+        assertCollected(ref);
+    }
+
+    @Test
+    public void testWhenTimeout() {
+        AsyncStream a = AsyncStream.instantAsync().then(() -> 1).end();
+        AsyncStream b = AsyncStream.deferredAsync();
+        AsyncStream async = AsyncStream.instantAsync();
+        async.exception(e -> {})
+             .when(50, TimeUnit.MILLISECONDS, a, b)
+             .end();
+        try {
+            async.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        b.then(() -> {}).end();
+        b.onEvent(0);
+        Assert.assertTrue(b.isEnd());
+    }
+
+    @Test
+    public void testWhenInTime() throws Exception {
+        AsyncStream a = AsyncStream.deferredAsync();
+        a.then(() -> {}).end();
+        AsyncStream async = AsyncStream.instantAsync();
+        async.exception(e -> Assert.fail())
+             .when(1, TimeUnit.HOURS, a)
+             .then(() -> "done")
+             .end();
+        a.onEvent(0);
+        Assert.assertEquals("done", async.join());
+        WeakReference<AsyncStream> ref = new WeakReference<>(async);
+        async = null;
+        assertCollected(ref);
+    }
+
+    @Test
+    public void testDeadlineCancelledWhenWaiterEnds() throws Exception {
+        AsyncStream cancelledInAwait = AsyncStream.instantAsync();
+        cancelledInAwait.await(AsyncStream.deferredAsync(), 1, TimeUnit.HOURS).end();
+        WeakReference<AsyncStream> awaitRef = new WeakReference<>(cancelledInAwait);
+        cancelledInAwait.cancel();
+        cancelledInAwait = null;
+
+        AsyncStream cancelledInWhen = AsyncStream.instantAsync();
+        cancelledInWhen.when(1, TimeUnit.HOURS, AsyncStream.deferredAsync(), AsyncStream.deferredAsync()).end();
+        WeakReference<AsyncStream> whenRef = new WeakReference<>(cancelledInWhen);
+        cancelledInWhen.cancel();
+        cancelledInWhen = null;
+
+        AsyncStream timedOut = AsyncStream.instantAsync();
+        timedOut.exception(e -> {})
+                .await(AsyncStream.deferredAsync(), 1, TimeUnit.HOURS)
+                .end()
+                .timeout(20, TimeUnit.MILLISECONDS);
+        WeakReference<AsyncStream> timedOutRef = new WeakReference<>(timedOut);
+        try {
+            timedOut.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        timedOut = null;
+
+        //一小时的期限仍在时间轮中的话会一直引用等待者
+        assertCollected(awaitRef);
+        assertCollected(whenRef);
+        assertCollected(timedOutRef);
+    }
+
+    private static void assertCollected(WeakReference<?> ref) throws InterruptedException {
+        for (int i = 0; i < 500 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+    @Test
+    public void testExpireWhileReleasingTickMutex() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            AsyncStream async = AsyncStream.deferredAsync();
+            CountDownLatch ended = new CountDownLatch(1);
+            async.exception(e -> {}).whenEnd(ended::countDown);
+            async.timeout(1, TimeUnit.MILLISECONDS);
+            //不断添加不会满足的action，让期限在持有者检查失败、让出tick_mutex时到期
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+            while (!async.isEnd() && System.nanoTime() - until < 0)
+                async.<Object>then(e -> {});
+            Assert.assertTrue("iteration " + i, ended.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
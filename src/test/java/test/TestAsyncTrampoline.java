@@ -0,0 +1,64 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static lab.mars.util.async.AsyncStream.instantAsync;
+
+public class TestAsyncTrampoline {
+    static final int STEPS = 100000;
+    int step;
+    int minDepth = Integer.MAX_VALUE, maxDepth;
+    boolean finished;
+
+    @Test
+    public void testDeepChain() {
+        instantAsync().trampolined().then(this::nextPhase);
+        Assert.assertTrue(finished);
+        Assert.assertEquals(STEPS + 1, step);
+        Assert.assertEquals(minDepth, maxDepth);
+    }
+
+    void nextPhase() {
+        int depth = new Throwable().getStackTrace().length;
+        minDepth = Math.min(minDepth, depth);
+        maxDepth = Math.max(maxDepth, depth);
+        if (step++ < STEPS)
+            instantAsync().then(this::nextPhase);
+        else
+            finished = true;
+    }
+
+    @Test
+    public void testNestedOrder() {
+        List<String> order = new ArrayList<>();
+        AsyncStream inner = AsyncStream.deferredAsync();
+        inner.<String>then(order::add).end();
+        instantAsync().trampolined()
+                      .then(() -> {
+                          inner.onEvent("inner");
+                          order.add("outer");//inner的tick在当前action返回之后才执行
+                      })
+                      .await(inner)
+                      .then(() -> order.add("after await"))
+                      .end();
+        Assert.assertEquals(Arrays.asList("outer", "inner", "after await"), order);
+    }
+
+    @Test
+    public void testUntrampolinedIsRecursive() {
+        List<String> order = new ArrayList<>();
+        AsyncStream inner = AsyncStream.deferredAsync();
+        inner.<String>then(order::add).end();
+        instantAsync().then(() -> {
+            inner.onEvent("inner");
+            order.add("outer");
+        }).end();
+        Assert.assertEquals(Arrays.asList("inner", "outer"), order);
+    }
+}
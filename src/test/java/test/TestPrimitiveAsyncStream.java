@@ -0,0 +1,167 @@
+package test;
+
+import lab.mars.util.async.IntAsyncStream;
+import lab.mars.util.async.LongAsyncStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static lab.mars.util.async.IntAsyncStream.intAsync;
+import static lab.mars.util.async.LongAsyncStream.longAsync;
+
+public class TestPrimitiveAsyncStream {
+
+    @Test
+    public void testIntAsync() {
+        IntAsyncStream async = intAsync();
+        int[] recv = new int[3];
+        int[] loop = new int[]{0};
+        async.thenInt(e -> recv[0] = e)
+             .loopInt(e -> {
+                 recv[1 + loop[0]] = e;
+                 return ++loop[0] < 2;
+             })
+             .end();
+        async.onEvent(1);
+        Assert.assertTrue(recv[0] == 1);
+        async.onEvent(2);
+        Assert.assertTrue(!async.isEnd());
+        async.onEvent(3);
+        Assert.assertTrue(async.isEnd());
+        Assert.assertTrue(recv[1] == 2 && recv[2] == 3);
+        Assert.assertTrue(!async.onEvent(4));
+    }
+
+    @Test
+    public void testLongAsync() {
+        LongAsyncStream async = longAsync();
+        long[] recv = new long[1];
+        async.thenLong(e -> recv[0] = e).end();
+        async.onEvent(Long.MAX_VALUE);
+        Assert.assertTrue(async.isEnd());
+        Assert.assertTrue(recv[0] == Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testBoxedEvents() {
+        IntAsyncStream ints = intAsync();
+        int[] intRecv = new int[1];
+        ints.thenInt(e -> intRecv[0] = e).end();
+        Integer boxedInt = 7;
+        Assert.assertTrue(ints.onEvent(boxedInt));//走int事件队列而不是onEvent(Object)
+        Assert.assertTrue(ints.isEnd());
+        Assert.assertTrue(intRecv[0] == 7);
+
+        LongAsyncStream longs = longAsync();
+        long[] longRecv = new long[1];
+        longs.thenLong(e -> longRecv[0] = e).end();
+        Long boxedLong = 7L;
+        Assert.assertTrue(longs.onEvent(boxedLong));
+        Assert.assertTrue(longs.isEnd());
+        Assert.assertTrue(longRecv[0] == 7L);
+    }
+
+    @Test
+    public void testBatchedBoxedEvents() {
+        IntAsyncStream ints = intAsync();
+        int[] intSum = new int[1];
+        Object[] other = new Object[1];
+        ints.loopInt(e -> {
+            intSum[0] += e;
+            return intSum[0] < 6;
+        }).then(e -> {
+            other[0] = e;
+        }).end();
+        Assert.assertTrue(ints.onEvents(1, 2) == 2);//Integer拆箱进入int事件队列
+        Assert.assertTrue(ints.onEvents(Arrays.asList(3, "x")) == 2);//"x"仍是Object事件
+        Assert.assertTrue(ints.isEnd());
+        Assert.assertTrue(intSum[0] == 6);
+        Assert.assertEquals("x", other[0]);
+
+        LongAsyncStream longs = longAsync();
+        long[] longSum = new long[1];
+        longs.loopLong(e -> {
+            longSum[0] += e;
+            return longSum[0] < 6;
+        }).end();
+        Assert.assertTrue(longs.onEvents(1L, 2L) == 2);
+        Assert.assertTrue(longs.onEvents(Collections.singletonList(3L)) == 1);
+        Assert.assertTrue(longs.isEnd());
+        Assert.assertTrue(longSum[0] == 6);
+    }
+
+    @Test
+    public void testCancelPurgesIntEvents() throws Exception {
+        IntAsyncStream async = intAsync(4);
+        for (int i = 0; i < 4; i++)
+            Assert.assertTrue(async.onEvent(i));
+        async.cancel();
+        Assert.assertTrue(async.isCancelled());
+        Field field = IntAsyncStream.class.getDeclaredField("intEvents");
+        field.setAccessible(true);
+        Object ring = field.get(async);
+        Method isEmpty = ring.getClass().getSuperclass().getDeclaredMethod("isEmpty");
+        isEmpty.setAccessible(true);
+        Assert.assertTrue((Boolean) isEmpty.invoke(ring));
+    }
+
+    @Test
+    public void testCapacity() {
+        IntAsyncStream async = intAsync(3);//rounded up to 4
+        for (int i = 0; i < 4; i++)
+            Assert.assertTrue(async.onEvent(i));
+        Assert.assertTrue(!async.onEvent(4));
+        int[] sum = new int[1];
+        async.loopInt(e -> {
+            sum[0] += e;
+            return true;
+        });
+        Assert.assertTrue(sum[0] == 6);
+        Assert.assertTrue(async.onEvent(4));
+        Assert.assertTrue(sum[0] == 10);
+    }
+
+    @Test
+    public void testObjectAndIntEvents() {
+        IntAsyncStream async = intAsync();
+        Object[] recv = new Object[2];
+        async.<String>then(e -> recv[0] = e);
+        async.thenInt(e -> recv[1] = e).end();
+        async.onEvent(1);
+        Assert.assertTrue(recv[0] == null && recv[1] == null);
+        async.onEvent("a");
+        Assert.assertTrue(async.isEnd());
+        Assert.assertEquals("a", recv[0]);
+        Assert.assertEquals(1, recv[1]);
+    }
+
+    @Test
+    public void testMultiProducers() throws InterruptedException {
+        int nThreads = 4, load = 100000;
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        LongAsyncStream async = longAsync(64);
+        long[] sum = new long[1];
+        int[] count = new int[1];
+        CountDownLatch end = new CountDownLatch(1);
+        async.loopLong(e -> {
+            sum[0] += e;
+            return ++count[0] < nThreads * load;
+        }).end(end::countDown);
+        for (int i = 0; i < nThreads; i++)
+            executor.submit(() -> {
+                for (int j = 0; j < load; j++)
+                    while (!async.onEvent((long) j)) ;
+            });
+        Assert.assertTrue(end.await(10, TimeUnit.SECONDS));
+        executor.shutdownNow();
+        Assert.assertTrue(sum[0] == (long) nThreads * load * (load - 1) / 2);
+    }
+}
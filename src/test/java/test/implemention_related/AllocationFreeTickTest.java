@@ -0,0 +1,79 @@
+package test.implemention_related;
+
+import lab.mars.util.async.AsyncStream;
+import lab.mars.util.async.IntAsyncStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用GCProfiler检查tick的稳定路径是否分配对象：pingPong中a的loop把事件转交给b，每次操作经过两次
+ * onEvent-&gt;tick-&gt;action，必须约为0 B/op，否则main抛出AssertionError。
+ * <code>mvn -P jmh verify</code>在verify阶段运行main，超过{@link #MAX_BYTES_PER_OP}时构建失败。
+ * objectLoop走Object事件队列，SpecialQueue每次offer会分配一个节点，只作为参照。
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AllocationFreeTickTest {
+    static final double MAX_BYTES_PER_OP = 1.0;
+    IntAsyncStream a, b;
+    AsyncStream objectStream;
+    Object event = new Object();
+    int i;
+    int sum;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        a = IntAsyncStream.intAsync();
+        b = IntAsyncStream.intAsync();
+        a.loopInt(e -> b.onEvent(e + 1));
+        b.loopInt(e -> {
+            sum += e;
+            return true;
+        });
+        objectStream = AsyncStream.deferredAsync();
+        objectStream.loop(e -> true);
+    }
+
+    @Benchmark
+    public void pingPong() {
+        a.onEvent(i++);
+    }
+
+    @Benchmark
+    public boolean objectLoop() {
+        return objectStream.onEvent(event);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(AllocationFreeTickTest.class.getSimpleName())
+                .forks(1)
+                .shouldFailOnError(true)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        Collection<RunResult> results = new Runner(opt).run();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+                if (!entry.getKey().endsWith("gc.alloc.rate.norm")) continue;
+                double bytes = entry.getValue().getScore();
+                if (benchmark.endsWith("pingPong") && bytes > MAX_BYTES_PER_OP)
+                    throw new AssertionError(benchmark + " allocates " + bytes + " B/op");
+            }
+        }
+    }
+}
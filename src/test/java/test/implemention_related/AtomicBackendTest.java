@@ -0,0 +1,53 @@
+package test.implemention_related;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较AsyncStreamAtomicRef的Unsafe实现与VarHandle实现在多线程onEvent下的开销。
+ * <p>VarHandle实现只在multi-release jar中生效，所以需要在Java 9+上以打包后的jar作为classpath运行：
+ * main先以默认参数运行一次（VarHandle），再以-Djdk.util.jar.enableMultiRelease=false运行一次（Unsafe），
+ * JMH输出的VM options中可以看到每次运行对应的设置。</p>
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class AtomicBackendTest {
+    AsyncStream asyncStream;
+    Object event = new Object();
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        asyncStream = AsyncStream.deferredAsync();
+        asyncStream.loop(e -> true);
+    }
+
+    @Benchmark
+    public boolean onEvent() {
+        return asyncStream.onEvent(event);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (String multiRelease : new String[]{"true", "false"}) {
+            Options opt = new OptionsBuilder()
+                    .include(AtomicBackendTest.class.getSimpleName())
+                    .jvmArgsAppend("-Djdk.util.jar.enableMultiRelease=" + multiRelease)
+                    .forks(1)
+                    .shouldDoGC(true)
+                    .syncIterations(true)
+                    .shouldFailOnError(true)
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+}
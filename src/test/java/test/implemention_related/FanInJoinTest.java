@@ -0,0 +1,84 @@
+package test.implemention_related;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 汇合宽度（子AsyncStream数）与完成延迟的关系：每次调用前准备width个未结束的子AsyncStream和等待它们的父AsyncStream，
+ * 调用中由{@link #THREADS}个线程同时结束这些子AsyncStream，直到父AsyncStream被唤醒。
+ * 结果是一次汇合的总延迟，除以width即为每个子AsyncStream的平均开销。
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FanInJoinTest {
+    static final int THREADS = 4;
+    @Param({"16", "1024", "16384", "100000"})
+    int width;
+    @Param({"when", "collect"})
+    String kind;
+
+    ExecutorService producers;
+    List<AsyncStream> children;
+    AsyncStream parent;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        producers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardownTrial() {
+        producers.shutdownNow();
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        children = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            AsyncStream child = AsyncStream.deferredAsync();
+            child.<Integer, Integer>then(e -> e).end();
+            children.add(child);
+        }
+        parent = kind.equals("when") ? AsyncStream.whenAsync(children) : AsyncStream.collectAsync(children);
+        parent.end();
+    }
+
+    @Benchmark
+    public Object fanIn() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int _t = t;
+            producers.execute(() -> {
+                started.countDown();
+                for (int i = _t; i < width; i += THREADS)
+                    children.get(i).onEvent(i);
+            });
+        }
+        started.await();
+        return parent.join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(FanInJoinTest.class.getSimpleName())
+                .forks(1)
+                .shouldFailOnError(true)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
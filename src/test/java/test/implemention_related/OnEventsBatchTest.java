@@ -0,0 +1,62 @@
+package test.implemention_related;
+
+import lab.mars.util.async.AsyncStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较逐个{@link AsyncStream#onEvent(Object)}与{@link AsyncStream#onEvents(Object...)}批量提交时每个事件的开销，
+ * 两者都以{@link #BATCH}个事件为一次调用，结果按事件数归一化。
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OnEventsBatchTest {
+    static final int BATCH = 256;
+    AsyncStream asyncStream;
+    Object[] events;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        asyncStream = AsyncStream.deferredAsync();
+        asyncStream.loop(e -> true);
+        events = new Object[BATCH];
+        for (int i = 0; i < BATCH; i++)
+            events[i] = i;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void single() {
+        for (Object event : events)
+            asyncStream.onEvent(event);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void batch() {
+        asyncStream.onEvents(events);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4}) {
+            Options opt = new OptionsBuilder()
+                    .include(OnEventsBatchTest.class.getSimpleName())
+                    .threads(threads)
+                    .forks(1)
+                    .shouldDoGC(true)
+                    .syncIterations(true)
+                    .shouldFailOnError(true)
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import lab.mars.util.async.AsyncStream;
+import lab.mars.util.async.AsyncStreamJfrProbe;
+import lab.mars.util.async.action.ThenAction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 探针只能在AsyncStream加载前通过系统属性安装，这里在录制中直接驱动{@link AsyncStreamJfrProbe}，检查事件的内容。
+ */
+public class TestAsyncJfr {
+
+    static class SlowAction implements ThenAction {
+        @Override public void run() {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        AsyncStreamJfrProbe probe = new AsyncStreamJfrProbe();
+        AsyncStream async = AsyncStream.deferredAsync();
+        AsyncStream awaited = AsyncStream.deferredAsync();
+        Path file = Files.createTempFile("asyncstream", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("lab.mars.util.async.Drain");
+            recording.enable("lab.mars.util.async.Await");
+            recording.enable("lab.mars.util.async.Action").withThreshold(Duration.ofMillis(10));
+            recording.start();
+
+            Object drain = probe.drainStarted(async);
+            SlowAction slow = new SlowAction();
+            Object action = probe.actionStarted(async, slow);
+            slow.run();
+            probe.actionExecuted(async, action);
+            probe.actionExecuted(async, probe.actionStarted(async, slow));//太快，低于阈值
+            Object await = probe.awaitStarted(async, awaited);
+            probe.drainFinished(async, drain);
+            probe.awaitFinished(async, await);
+
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        int stream = System.identityHashCode(async);
+        RecordedEvent drainEvent = find(events, "lab.mars.util.async.Drain");
+        Assert.assertEquals(stream, drainEvent.getInt("stream"));
+        Assert.assertEquals(2, drainEvent.getInt("actions"));
+
+        RecordedEvent actionEvent = find(events, "lab.mars.util.async.Action");
+        Assert.assertEquals(SlowAction.class.getName(), actionEvent.getClass("action").getName());
+        Assert.assertTrue(actionEvent.getDuration().toMillis() >= 10);
+        Assert.assertEquals(1, events.stream()
+                                      .filter(e -> e.getEventType().getName().equals("lab.mars.util.async.Action"))
+                                      .count());
+
+        RecordedEvent awaitEvent = find(events, "lab.mars.util.async.Await");
+        Assert.assertEquals("stream", awaitEvent.getString("target"));
+        Assert.assertEquals(System.identityHashCode(awaited), awaitEvent.getInt("targetStream"));
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        for (RecordedEvent event : events)
+            if (event.getEventType().getName().equals(name)) return event;
+        throw new AssertionError("no " + name + " event");
+    }
+}
@@ -0,0 +1,212 @@
+package test;
+
+import lab.mars.util.async.AsyncStream;
+import lab.mars.util.async.AsyncStreamFlow;
+import lab.mars.util.async.OverflowPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class TestAsyncFlow {
+
+    static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        final List<T> items = Collections.synchronizedList(new ArrayList<>());
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        @Override public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void testPublisherDemand() {
+        AsyncStream source = AsyncStream.deferredAsync();
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        AsyncStreamFlow.<Integer>publisher(source).subscribe(subscriber);
+        source.onEvents(1, 2, 3, 4, 5);
+        Assert.assertTrue(subscriber.items.isEmpty());
+        subscriber.subscription.request(2);
+        Assert.assertEquals(Arrays.asList(1, 2), subscriber.items);
+        subscriber.subscription.request(10);
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), subscriber.items);
+        Assert.assertFalse(subscriber.completed);
+        source.end();
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertTrue(source.isEnd());
+    }
+
+    @Test
+    public void testPublisherBoundedBackpressure() {
+        AsyncStream source = AsyncStream.boundedAsync(2, OverflowPolicy.REJECT);
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        AsyncStreamFlow.<Integer>publisher(source).subscribe(subscriber);
+        Assert.assertTrue(source.onEvent(1));
+        Assert.assertTrue(source.onEvent(2));
+        Assert.assertFalse(source.onEvent(3));//no demand, the queue is full
+        subscriber.subscription.request(1);
+        Assert.assertTrue(source.onEvent(3));
+        Assert.assertEquals(Collections.singletonList(1), subscriber.items);
+    }
+
+    @Test
+    public void testPublisherCancelAndBadRequest() {
+        AsyncStream source = AsyncStream.deferredAsync();
+        List<Object> after = new ArrayList<>();
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        AsyncStreamFlow.<Integer>publisher(source).subscribe(subscriber);
+        source.loop(after::add);
+        source.onEvents(1, 2);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        Assert.assertEquals(Collections.singletonList(1), subscriber.items);
+        Assert.assertEquals(Collections.singletonList(2), after);//取消后事件交给后面的action
+
+        AsyncStream another = AsyncStream.deferredAsync();
+        RecordingSubscriber<Integer> bad = new RecordingSubscriber<>();
+        AsyncStreamFlow.<Integer>publisher(another).subscribe(bad);
+        another.onEvent(1);
+        bad.subscription.request(0);
+        Assert.assertTrue(bad.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testPublisherSingleSubscriber() {
+        Flow.Publisher<Object> publisher = AsyncStreamFlow.publisher(AsyncStream.deferredAsync());
+        publisher.subscribe(new RecordingSubscriber<>());
+        RecordingSubscriber<Object> second = new RecordingSubscriber<>();
+        publisher.subscribe(second);
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testPublisherError() {
+        RuntimeException boom = new RuntimeException("boom");
+        AsyncStream source = AsyncStream.instantAsync().exception(e -> {});
+        RecordingSubscriber<Object> subscriber = new RecordingSubscriber<>();
+        source.then(() -> {throw boom;});
+        AsyncStreamFlow.publisher(source).subscribe(subscriber);
+        Assert.assertSame(boom, subscriber.error);
+    }
+
+    @Test
+    public void testSubscriberPrefetch() throws Exception {
+        int prefetch = 8, total = 1000;
+        AsyncStream target = AsyncStream.deferredAsync();
+        List<Integer> recv = Collections.synchronizedList(new ArrayList<>());
+        Flow.Subscriber<Integer> subscriber = AsyncStreamFlow.subscriber(target, prefetch, e -> recv.add(e));
+        target.end();
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), 4)) {
+            publisher.subscribe(subscriber);
+            for (int i = 0; i < total; i++)
+                publisher.submit(i);
+        }
+        target.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(total, recv.size());
+        for (int i = 0; i < total; i++)
+            Assert.assertEquals(i, (int) recv.get(i));
+    }
+
+    @Test
+    public void testSubscriberError() throws Exception {
+        AsyncStream target = AsyncStream.deferredAsync().exception(e -> {});
+        Flow.Subscriber<Integer> subscriber = AsyncStreamFlow.subscriber(target, 4, e -> true);
+        target.end();
+        IllegalStateException failure = new IllegalStateException("upstream");
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(subscriber);
+            publisher.closeExceptionally(failure);
+        }
+        try {
+            target.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testPublisherCompletesAfterFinish() {
+        AsyncStream source = AsyncStream.deferredAsync();
+        boolean[] acceptedAfterComplete = new boolean[1];
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<Integer>() {
+            @Override public void onComplete() {
+                acceptedAfterComplete[0] = source.onEvent(99);//onComplete之后源AsyncStream不能再接受事件
+                super.onComplete();
+            }
+        };
+        AsyncStreamFlow.<Integer>publisher(source).subscribe(subscriber);
+        subscriber.subscription.request(10);
+        source.onEvent(1);
+        source.end();
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertFalse(acceptedAfterComplete[0]);
+        Assert.assertEquals(Collections.singletonList(1), subscriber.items);
+    }
+
+    @Test
+    public void testPublisherDeliversEventsQueuedBeforeEnd() {
+        AsyncStream source = AsyncStream.deferredAsync();
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        AsyncStreamFlow.<Integer>publisher(source).subscribe(subscriber);
+        source.onEvent(1);
+        source.end();
+        Assert.assertTrue(source.onEvent(2));//END还没有执行
+        Assert.assertFalse(subscriber.completed);
+        subscriber.subscription.request(10);
+        Assert.assertEquals(Arrays.asList(1, 2), subscriber.items);
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertTrue(source.isEnd());
+    }
+
+    @Test
+    public void testSubscriberBoundedTargetRejects() {
+        AsyncStream gate = AsyncStream.deferredAsync();
+        gate.<Object>then(e -> {}).end();
+        AsyncStream target = AsyncStream.boundedAsync(2, OverflowPolicy.REJECT);
+        target.await(gate);
+        List<Integer> recv = new ArrayList<>();
+        Flow.Subscriber<Integer> subscriber = AsyncStreamFlow.subscriber(target, 8, recv::add);
+        target.end();
+        target.onEvent(-1);//开始执行，停在await，队列中的事件不被消费
+        target.onEvent(-2);//队列已满
+        long[] requested = new long[1];
+        boolean[] cancelled = new boolean[1];
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override public void request(long n) {
+                requested[0] += n;
+            }
+
+            @Override public void cancel() {
+                cancelled[0] = true;
+            }
+        });
+        Assert.assertEquals(2, requested[0]);//prefetch不超过目标的容量
+        subscriber.onNext(1);
+        subscriber.onNext(2);
+        Assert.assertFalse(cancelled[0]);//被拒绝不等于目标已经结束
+        gate.onEvent(0);
+        Assert.assertEquals(Arrays.asList(-1, -2, 1, 2), recv);
+        subscriber.onComplete();
+        Assert.assertTrue(target.isEnd());
+        Assert.assertFalse(cancelled[0]);
+    }
+}